@@ -0,0 +1,73 @@
+package com.atex.onecms.scripting.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.atex.onecms.scripting.backend.ScriptBackends;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the engine benchmarks at 1, 2, 4 ... N threads so scaling can be compared between runs.
+ * N defaults to the number of available processors and can be set with <code>-Dbenchmark.maxThreads</code>
+ * (0 or less means the number of available processors).
+ * <code>-Dbenchmark.include</code> restricts the run to benchmarks matching a regular expression.
+ * <code>-Dbenchmark.backends</code> is a comma separated list of the script backends to compare, and defaults to the
+ * configured script backend. Backends that can't be loaded, e.g. GraalJS when it isn't on the classpath, are skipped.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() { }
+
+    public static void main(final String[] args) throws RunnerException {
+        int maxThreads = Integer.getInteger("benchmark.maxThreads", 0);
+        if (maxThreads <= 0) {
+            maxThreads = Runtime.getRuntime().availableProcessors();
+        }
+        final String include = System.getProperty("benchmark.include", LifecycleScriptingEngineBenchmark.class.getName());
+        final String resultPrefix = System.getProperty("benchmark.resultPrefix", "target/jmh-result");
+        final String[] backends = getAvailableBackends(System.getProperty("benchmark.backends",
+                System.getProperty("com.atex.onecms.scripting.scriptBackend", "nashorn")));
+
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .param("backend", backends)
+                    .threads(threads)
+                    .result(resultPrefix + "-" + threads + "-threads.json")
+                    .resultFormat(ResultFormatType.JSON);
+            new Runner(options.build()).run();
+        }
+    }
+
+    /**
+     * Get the backends that can be loaded.
+     * @param names A comma separated list of backend names.
+     * @return The names of the backends that can be loaded.
+     */
+    private static String[] getAvailableBackends(final String names) {
+        final List<String> available = new ArrayList<>();
+        for (String name : names.split(",")) {
+            try {
+                ScriptBackends.get(name.trim());
+                available.add(name.trim());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping script backend " + name.trim() + ", it can't be loaded");
+            }
+        }
+        if (available.isEmpty()) {
+            throw new IllegalArgumentException("None of the script backends " + names + " can be loaded");
+        }
+        return available.toArray(new String[0]);
+    }
+
+    private static int nextThreadCount(final int threads, final int maxThreads) {
+        if (threads == maxThreads) {
+            return maxThreads + 1;
+        }
+        return Math.min(threads * 2, maxThreads);
+    }
+}
@@ -0,0 +1,161 @@
+package com.atex.onecms.scripting.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.atex.onecms.scripting.ContextMap;
+import com.atex.onecms.scripting.DetachedScriptExecutor;
+import com.atex.onecms.scripting.LifecycleScriptingConfiguration;
+import com.atex.onecms.scripting.LifecycleScriptingEngine;
+import com.atex.onecms.scripting.MockContentManagers;
+import com.atex.onecms.scripting.ScriptEngineException;
+import com.atex.onecms.scripting.ScriptType;
+import com.atex.onecms.scripting.TriggerResult;
+import com.atex.onecms.scripting.api.ContentWriteFacade;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the public entry points of the {@link LifecycleScriptingEngine}. Throughput is reported alongside
+ * sampled latencies, which JMH summarises as percentiles (p50, p90, p99, ...). Thread counts are chosen by
+ * {@link BenchmarkRunner}, which runs this class at 1..N threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LifecycleScriptingEngineBenchmark {
+
+    static final String TRIGGER_CONTENT_TYPE = "benchmark";
+
+    /**
+     * The number of contexts in each triggerBatch call, reported per context so it compares with trigger.
+     */
+    static final int BATCH_SIZE = 100;
+
+    /**
+     * The engine, shared by every benchmark thread in the same way it is shared by content saves. It runs scripts on
+     * each backend, so one run compares them. {@link BenchmarkRunner} sets the backends from
+     * <code>-Dbenchmark.backends</code>, skipping any that can't be loaded.
+     */
+    @State(Scope.Benchmark)
+    public static class EngineState {
+
+        @Param({"nashorn", "graaljs"})
+        String backend;
+
+        LifecycleScriptingEngine engine;
+
+        @Setup
+        public void setup() throws ScriptEngineException, ExecutionException {
+            MockContentManagers contentManagers = new MockContentManagers(true);
+            contentManagers.addScript("update-security-parent", TRIGGER_CONTENT_TYPE);
+            contentManagers.addScript("library-script", "");
+            contentManagers.addScript("detached-script", "");
+            LifecycleScriptingConfiguration configuration = new LifecycleScriptingConfiguration();
+            configuration.setScriptBackend(backend);
+            engine = LifecycleScriptingEngine.getInstance(contentManagers.getContentManager(), configuration);
+
+            // Load and compile everything once so the measurements don't include the first compile.
+            engine.trigger(ScriptType.PRE_STORE, TRIGGER_CONTENT_TYPE, newTriggerContext());
+            engine.run("detached-script", new ContextMap());
+            engine.require("library-script");
+        }
+    }
+
+    /**
+     * An engine of its own for runDetached, created with each rejection policy. What the caller of runDetached pays
+     * depends on the policy once the queue is full, which it soon is when scripts are handed over faster than the
+     * workers complete them.
+     */
+    @State(Scope.Benchmark)
+    public static class DetachedState {
+
+        @Param({"CALLER_RUNS", "DROP_OLDEST", "BLOCK"})
+        DetachedScriptExecutor.RejectionPolicy rejectionPolicy;
+
+        LifecycleScriptingEngine engine;
+
+        @Setup
+        public void setup() throws ScriptEngineException, ExecutionException {
+            MockContentManagers contentManagers = new MockContentManagers(true);
+            contentManagers.addScript("detached-script", "");
+            LifecycleScriptingConfiguration configuration = new LifecycleScriptingConfiguration();
+            configuration.setDetachedRejectionPolicy(rejectionPolicy);
+            engine = LifecycleScriptingEngine.getInstance(contentManagers.getContentManager(), configuration);
+            engine.run("detached-script", new ContextMap());
+        }
+
+        /**
+         * Wait for the scripts handed over in an iteration to complete, so every iteration starts with an empty queue.
+         */
+        @TearDown(Level.Iteration)
+        public void drain() {
+            DetachedScriptExecutor executor = engine.getDetachedScriptExecutor();
+            while (executor.getQueueSize() > 0 || executor.getActiveCount() > 0) {
+                Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            engine.close();
+        }
+    }
+
+    private static ContextMap newTriggerContext() {
+        return new ContextMap("content", new ContentWriteFacade(MockContentManagers.getContentWriteWithStatus("review")));
+    }
+
+    @Benchmark
+    public ContextMap trigger(final EngineState state) throws ScriptEngineException {
+        return state.engine.trigger(ScriptType.PRE_STORE, TRIGGER_CONTENT_TYPE, newTriggerContext());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<TriggerResult> triggerBatch(final EngineState state) throws ScriptEngineException {
+        List<ContextMap> contexts = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            contexts.add(newTriggerContext());
+        }
+        return state.engine.triggerBatch(ScriptType.PRE_STORE, TRIGGER_CONTENT_TYPE, contexts);
+    }
+
+    @Benchmark
+    public ContextMap run(final EngineState state) throws ScriptEngineException, ExecutionException {
+        return state.engine.run("detached-script", new ContextMap());
+    }
+
+    @Benchmark
+    public Object require(final EngineState state) throws ScriptEngineException {
+        return state.engine.require("library-script");
+    }
+
+    /**
+     * Measures what a script calling runDetached pays. Each iteration starts with an empty queue, but the workers
+     * can't keep up with the benchmark threads, so the queue fills and most calls see the rejection policy:
+     * with CALLER_RUNS the caller runs the script itself, so this measures synchronous execution; with DROP_OLDEST
+     * it measures only the hand-off to the queue; with BLOCK it includes waiting for a worker to free a slot.
+     */
+    @Benchmark
+    public void runDetached(final DetachedState state) {
+        state.engine.runDetached("detached-script", new ContextMap());
+    }
+}
@@ -0,0 +1,70 @@
+package com.atex.onecms.scripting.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.atex.onecms.scripting.ContextMap;
+import com.atex.onecms.scripting.LifecycleScriptingConfiguration;
+import com.atex.onecms.scripting.LifecycleScriptingEngine;
+import com.atex.onecms.scripting.MockContentManagers;
+import com.atex.onecms.scripting.ScriptEngineException;
+import com.atex.onecms.scripting.ScriptType;
+import com.atex.onecms.scripting.api.ContentWriteFacade;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A JMH benchmark of the time from creating the {@link LifecycleScriptingEngine} to the first trigger returning, with
+ * and without Nashorn's persistent code cache. Each fork is a new JVM, so every measurement is a cold start. The
+ * warm-up fork fills the code cache, so the measured forks with the cache enabled load the library and scripts from
+ * it rather than compiling them. Run it on one thread:
+ * <code>mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=StartupBenchmark -Dbenchmark.maxThreads=1</code>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, warmups = 1)
+public class StartupBenchmark {
+
+    /**
+     * The directory the code cache is kept in between forks.
+     */
+    static final String CODE_CACHE_DIRECTORY = "target/nashorn-code-cache";
+
+    @State(Scope.Benchmark)
+    public static class StartupState {
+
+        @Param({"false", "true"})
+        boolean persistentCodeCache;
+
+        MockContentManagers contentManagers;
+
+        LifecycleScriptingConfiguration configuration;
+
+        @Setup
+        public void setup() {
+            contentManagers = new MockContentManagers(true);
+            contentManagers.addScript("update-security-parent", LifecycleScriptingEngineBenchmark.TRIGGER_CONTENT_TYPE);
+            configuration = new LifecycleScriptingConfiguration();
+            configuration.setCodeCacheDirectory(persistentCodeCache ? CODE_CACHE_DIRECTORY : null);
+        }
+    }
+
+    @Benchmark
+    public ContextMap timeToFirstTrigger(final StartupState state) throws ScriptEngineException {
+        final LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(
+                state.contentManagers.getContentManager(), state.configuration);
+        return engine.trigger(ScriptType.PRE_STORE, LifecycleScriptingEngineBenchmark.TRIGGER_CONTENT_TYPE,
+                new ContextMap("content", new ContentWriteFacade(
+                        MockContentManagers.getContentWriteWithStatus("review"))));
+    }
+}
@@ -0,0 +1,79 @@
+package com.atex.onecms.scripting;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * A snapshot of the statistics of one of the engine's caches, as reported by {@link ScriptingStatisticsMXBean}.
+ */
+public final class CacheStatistics {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long loadSuccessCount;
+
+    private final long loadExceptionCount;
+
+    private final double averageLoadPenaltyMillis;
+
+    private final long evictionCount;
+
+    @ConstructorProperties({"hitCount", "missCount", "loadSuccessCount", "loadExceptionCount",
+            "averageLoadPenaltyMillis", "evictionCount"})
+    public CacheStatistics(final long hitCount,
+                           final long missCount,
+                           final long loadSuccessCount,
+                           final long loadExceptionCount,
+                           final double averageLoadPenaltyMillis,
+                           final long evictionCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadExceptionCount = loadExceptionCount;
+        this.averageLoadPenaltyMillis = averageLoadPenaltyMillis;
+        this.evictionCount = evictionCount;
+    }
+
+    static CacheStatistics of(final CacheStats stats) {
+        return new CacheStatistics(stats.hitCount(),
+                stats.missCount(),
+                stats.loadSuccessCount(),
+                stats.loadExceptionCount(),
+                stats.averageLoadPenalty() / TimeUnit.MILLISECONDS.toNanos(1),
+                stats.evictionCount());
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return The number of loads that succeeded, including background reloads.
+     */
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadExceptionCount() {
+        return loadExceptionCount;
+    }
+
+    /**
+     * @return The average time spent loading a value in milliseconds.
+     */
+    public double getAverageLoadPenaltyMillis() {
+        return averageLoadPenaltyMillis;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+}
@@ -0,0 +1,224 @@
+package com.atex.onecms.scripting;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.ScriptException;
+
+import com.atex.onecms.content.ContentVersionId;
+import com.atex.onecms.scripting.backend.CompiledCode;
+import com.atex.onecms.scripting.backend.ScriptRuntime;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A CompilableScript aggregates a LifecycleScript and it's corresponding compiled scripts. A compiled script
+ * is generated lazily from the LifecycleScript for each runtime it runs on, and won't be created until the
+ * getCompiledScript function is called with that runtime, which then only compiles the code in the LifecycleScript
+ * if necessary.
+ */
+final class CompilableScript {
+    /**
+     * The LifecycleScript to wrap.
+     */
+    private final LifecycleScript script;
+
+    /**
+     * The version of the LifecycleScript content.
+     */
+    private final ContentVersionId versionId;
+
+    /**
+     * The event the script runs during, or null if the LifecycleScript has no valid event.
+     */
+    private final ScriptType scriptType;
+
+    /**
+     * What the script does to its context, stored on the LifecycleScript when it was saved, or from analyzing its
+     * source when it was loaded if the stored analysis doesn't match the source.
+     */
+    private final ScriptAnalyzer.Analysis analysis;
+
+    /**
+     * The context keys the script reads, declared or from its analysis.
+     */
+    private final Set<String> readKeys;
+
+    /**
+     * The context keys the script may change, declared or from its analysis, or null if they can't be known.
+     */
+    private final Set<String> writeKeys;
+
+    /**
+     * The compiled scripts based on the lifecycle scripts code, keyed by the runtime that compiled them. Runtimes are
+     * weakly referenced, so the code compiled by an engine that has been abandoned is dropped along with the engine.
+     */
+    private final Map<ScriptRuntime, CompiledCode> compiledScripts = CacheBuilder.newBuilder()
+            .weakKeys()
+            .<ScriptRuntime, CompiledCode>build()
+            .asMap();
+
+    /**
+     * The error compiling the script, so a script that doesn't compile isn't compiled again every time it runs.
+     */
+    private volatile ScriptException compileError;
+
+    /**
+     * Create a new CompilableScript instance based off a given LifecycleScript.
+     * @param script The LifecycleScript to base this CompilableScript from.
+     * @param versionId The version of the content the LifecycleScript was read from.
+     */
+    CompilableScript(final LifecycleScript script, final ContentVersionId versionId) {
+        this.script = script;
+        this.versionId = versionId;
+        this.scriptType = parseScriptType(script.getEvent());
+        final ScriptAnalyzer.Analysis stored = ScriptAnalyzer.getStored(script);
+        this.analysis = stored != null ? stored : ScriptAnalyzer.scan(script.getScript());
+        // A side the script doesn't declare is unknown, not empty, so it comes from the analysis.
+        this.readKeys = toSet(script.getContextReads() != null ? script.getContextReads() : analysis.getReads());
+        this.writeKeys = script.getContextWrites() != null
+                ? toSet(script.getContextWrites())
+                : getAnalyzedWriteKeys(analysis);
+    }
+
+    private static Set<String> toSet(final List<String> names) {
+        return names != null ? Collections.unmodifiableSet(new LinkedHashSet<>(names)) : Collections.emptySet();
+    }
+
+    /**
+     * Get the keys a script that hasn't declared what it writes may change. A script that calls functions can modify
+     * any value it names, not just the names it assigns, so only a pure script is known to leave the values it reads
+     * unchanged.
+     */
+    private static Set<String> getAnalyzedWriteKeys(final ScriptAnalyzer.Analysis analysis) {
+        if (analysis.getWrites() == null) {
+            return null;
+        }
+        if (analysis.isPure()) {
+            return Collections.emptySet();
+        }
+        final Set<String> keys = new LinkedHashSet<>(analysis.getWrites());
+        keys.addAll(analysis.getReads());
+        return Collections.unmodifiableSet(keys);
+    }
+
+    private static ScriptType parseScriptType(final String event) {
+        if (event == null) {
+            return null;
+        }
+        try {
+            return ScriptType.valueOf(event);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the compiled script for this CompilableScript. If the script hasn't yet been compiled by the provided
+     * runtime, it will be compiled using that runtime.
+     * @param runtime The runtime that will execute the script.
+     * @return The compiled script, which can be executed on the given runtime.
+     * @throws ScriptException If there is an error compiling the script, on this or an earlier call.
+     */
+    CompiledCode getCompiledScript(final ScriptRuntime runtime) throws ScriptException {
+        CompiledCode compiledScript = compiledScripts.get(runtime);
+        if (compiledScript == null) {
+            if (compileError != null) {
+                throw compileError;
+            }
+            try {
+                compiledScript = runtime.compile(script.getId(), script.getScript());
+            } catch (ScriptException e) {
+                compileError = e;
+                throw e;
+            }
+            compiledScripts.put(runtime, compiledScript);
+        }
+        return compiledScript;
+    }
+
+    /**
+     * Get what the script does to its context.
+     * @return The analysis of the script.
+     */
+    ScriptAnalyzer.Analysis getAnalysis() {
+        return analysis;
+    }
+
+    /**
+     * Get the context keys the script reads, as declared on the LifecycleScript, or found by its analysis if it
+     * doesn't declare them.
+     * @return The keys read.
+     */
+    Set<String> getReadKeys() {
+        return readKeys;
+    }
+
+    /**
+     * Get the context keys the script may change, as declared on the LifecycleScript, or found by its analysis if it
+     * doesn't declare them.
+     * @return The keys written, or null if the script can change keys that can't be known.
+     */
+    Set<String> getWriteKeys() {
+        return writeKeys;
+    }
+
+
+    /**
+     * Get the version of the content the underlying LifecycleScript was read from.
+     * @return The content version.
+     */
+    ContentVersionId getVersionId() {
+        return versionId;
+    }
+
+    /**
+     * Get the ID of the underlying LifecycleScript.
+     * @return The script ID.
+     */
+    String getId() {
+        return script.getId();
+    }
+
+    /**
+     * Get the content type to match with the underlying LifecycleScript.
+     * @return The scripts content type.
+     */
+    String getContentType() {
+        return script.getScriptType();
+    }
+
+    /**
+     * Get the event within the underlying LifecycleScript.
+     * @return The event this script should run during.
+     */
+    String getEvent() {
+        return script.getEvent();
+    }
+
+    /**
+     * Get the wall-clock time budget of the underlying LifecycleScript.
+     * @return The timeout in milliseconds, or null if the script doesn't set one.
+     */
+    Long getTimeoutMillis() {
+        return script.getTimeoutMillis();
+    }
+
+    /**
+     * Get the CPU time budget of the underlying LifecycleScript.
+     * @return The CPU time in milliseconds, or null if the script doesn't set one.
+     */
+    Long getCpuTimeMillis() {
+        return script.getCpuTimeMillis();
+    }
+
+    /**
+     * Get the event within the underlying LifecycleScript as a ScriptType.
+     * @return The event this script should run during, or null if the event isn't a ScriptType.
+     */
+    ScriptType getScriptType() {
+        return scriptType;
+    }
+}
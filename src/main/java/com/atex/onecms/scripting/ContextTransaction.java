@@ -0,0 +1,113 @@
+package com.atex.onecms.scripting;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.atex.onecms.content.ContentId;
+import com.atex.onecms.content.ContentManager;
+import com.atex.onecms.content.ContentVersionId;
+import com.atex.onecms.scripting.api.BaseJSObject;
+import com.rits.cloning.Cloner;
+
+/**
+ * A ContextTransaction gives scripts a private working copy of a ContextMap, so the changes scripts make only reach
+ * the caller if every script succeeds, and the callers context is never modified.
+ * Rather than deep cloning the whole context for every script, BaseJSObjects such as a ContentWriteFacade are copied
+ * on write: they are only cloned when a script first touches them, and the copy is shared by all the scripts that
+ * run in the same transaction. Other values are cloned once, when the transaction begins.
+ * Scripts that run at the same time each run in a branch of the transaction, whose changes are merged back once they
+ * have all completed.
+ */
+final class ContextTransaction {
+
+    /**
+     * Cloners are expensive to create and safe to share once configured.
+     */
+    private static final Cloner CLONER = newCloner();
+
+    private final ContextMap context;
+
+    /**
+     * Begin a transaction on a context.
+     * @param source The callers context, which is left unchanged.
+     */
+    ContextTransaction(final ContextMap source) {
+        context = new ContextMap();
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            context.put(entry.getKey(), copyOnWrite(entry.getValue()));
+        }
+    }
+
+    private static Cloner newCloner() {
+        Cloner cloner = new Cloner();
+        cloner.dontCloneInstanceOf(ContentManager.class);
+        cloner.registerImmutable(ContentId.class, ContentVersionId.class);
+        return cloner;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyOnWrite(final Object value) {
+        if (value instanceof BaseJSObject) {
+            return new CopyOnWriteJSObject<>((BaseJSObject<Object>) value, CLONER);
+        }
+        return CLONER.deepClone(value);
+    }
+
+    /**
+     * Get the working copy of the context that scripts in this transaction should run in.
+     * @return The working context.
+     */
+    ContextMap getContext() {
+        return context;
+    }
+
+    /**
+     * Begin a transaction on the working context of this transaction, for a script to run in at the same time as
+     * others. Neither transaction sees the changes the other makes until they are merged.
+     * @return The branch.
+     */
+    ContextTransaction branch() {
+        final ContextMap source = new ContextMap();
+        for (Map.Entry<String, Object> entry : context.entrySet()) {
+            final Object value = entry.getValue();
+            source.put(entry.getKey(), value instanceof CopyOnWriteJSObject
+                    ? ((CopyOnWriteJSObject<?>) value).commit()
+                    : value);
+        }
+        return new ContextTransaction(source);
+    }
+
+    /**
+     * Merge the changes a branch made to some keys into this transaction. Copy on write values the branch didn't
+     * touch are left as they are.
+     * @param branch A branch of this transaction.
+     * @param keys The keys to take from the branch.
+     */
+    void merge(final ContextTransaction branch, final Collection<String> keys) {
+        for (Map.Entry<String, Object> entry : branch.context.entrySet()) {
+            final Object value = entry.getValue();
+            if (!keys.contains(entry.getKey()) || !context.containsKey(entry.getKey())) {
+                continue;
+            }
+            if (value instanceof CopyOnWriteJSObject) {
+                if (((CopyOnWriteJSObject<?>) value).isCopied()) {
+                    context.put(entry.getKey(), ((CopyOnWriteJSObject<?>) value).commit());
+                }
+            } else {
+                context.put(entry.getKey(), value);
+            }
+        }
+    }
+
+    /**
+     * Commit the transaction, replacing copy on write values with the copies scripts modified, or with the
+     * callers original values if no script touched them.
+     * @return The context containing the changes made by scripts.
+     */
+    ContextMap commit() {
+        context.replaceAll((key, value) -> value instanceof CopyOnWriteJSObject
+                ? ((CopyOnWriteJSObject<?>) value).commit()
+                : value);
+        return context;
+    }
+}
@@ -0,0 +1,135 @@
+package com.atex.onecms.scripting;
+
+import java.util.Collection;
+import java.util.Set;
+
+import com.atex.onecms.scripting.api.BaseJSObject;
+import com.rits.cloning.Cloner;
+
+/**
+ * A CopyOnWriteJSObject stands in for a BaseJSObject in a {@link ContextTransaction}. The wrapped object is deep
+ * cloned the first time a script accesses it, and every access after that goes to the clone, so the original is
+ * never modified by scripts. Objects that scripts never touch are never cloned.
+ * @param <T> The Type wrapped by the BaseJSObject.
+ */
+final class CopyOnWriteJSObject<T> extends BaseJSObject<T> {
+
+    private final BaseJSObject<T> source;
+
+    private final Cloner cloner;
+
+    private BaseJSObject<T> copy;
+
+    CopyOnWriteJSObject(final BaseJSObject<T> source, final Cloner cloner) {
+        super(null, false);
+        this.source = source;
+        this.cloner = cloner;
+    }
+
+    /**
+     * Get the private copy of the wrapped object, cloning it on first access.
+     * @return The copy that scripts in this transaction modify.
+     */
+    private BaseJSObject<T> getCopy() {
+        if (copy == null) {
+            copy = cloner.deepClone(source);
+        }
+        return copy;
+    }
+
+    /**
+     * Get the object that should be returned to the caller of the transaction.
+     * @return The modified copy, or the original object if no script accessed it.
+     */
+    BaseJSObject<T> commit() {
+        return copy != null ? copy : source;
+    }
+
+    /**
+     * @return true if a script has accessed the wrapped object, so it may have been modified.
+     */
+    boolean isCopied() {
+        return copy != null;
+    }
+
+    @Override
+    public T getBaseObject() {
+        return getCopy().getBaseObject();
+    }
+
+    @Override
+    public Object call(final Object thiz, final Object... args) {
+        return getCopy().call(thiz, args);
+    }
+
+    @Override
+    public Object newObject(final Object... args) {
+        return getCopy().newObject(args);
+    }
+
+    @Override
+    public Object getMember(final String name) {
+        return getCopy().getMember(name);
+    }
+
+    @Override
+    public boolean hasMember(final String name) {
+        return getCopy().hasMember(name);
+    }
+
+    @Override
+    public void setMember(final String name, final Object value) {
+        getCopy().setMember(name, value);
+    }
+
+    @Override
+    public void removeMember(final String name) {
+        getCopy().removeMember(name);
+    }
+
+    @Override
+    public Object getSlot(final int index) {
+        return getCopy().getSlot(index);
+    }
+
+    @Override
+    public boolean hasSlot(final int slot) {
+        return getCopy().hasSlot(slot);
+    }
+
+    @Override
+    public void setSlot(final int index, final Object value) {
+        getCopy().setSlot(index, value);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return getCopy().keySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return getCopy().values();
+    }
+
+    @Override
+    public boolean isFunction() {
+        // What kind of object it is doesn't change when it is cloned, so asking doesn't need a copy.
+        return commit().isFunction();
+    }
+
+    @Override
+    public boolean isArray() {
+        return commit().isArray();
+    }
+
+    @Override
+    public String getClassName() {
+        return source.getClassName();
+    }
+
+    @Override
+    public Object getDefaultValue(final Class<?> hint) {
+        return getCopy().getDefaultValue(hint);
+    }
+}
@@ -0,0 +1,155 @@
+package com.atex.onecms.scripting;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The DetachedScriptExecutor runs detached scripts on a bounded number of workers, with a bounded queue of scripts
+ * waiting to run. What happens to a script when the queue is full is decided by its {@link RejectionPolicy}, so a
+ * script calling runDetached in a loop applies backpressure instead of starting an unbounded number of threads.
+ */
+public final class DetachedScriptExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(DetachedScriptExecutor.class.getName());
+
+    /**
+     * What to do with a detached script when every worker is busy and the queue is full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * Run the script on the thread calling runDetached, slowing the caller down to the rate scripts complete.
+         */
+        CALLER_RUNS,
+        /**
+         * Drop the script that has waited longest in the queue to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Wait up to the block timeout for room in the queue, and drop the script if there is none.
+         */
+        BLOCK
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Create a new DetachedScriptExecutor.
+     * @param configuration The configuration to take the worker count, queue capacity and rejection policy from.
+     */
+    DetachedScriptExecutor(final LifecycleScriptingConfiguration configuration) {
+        final int workers = configuration.getDetachedWorkers();
+        executor = new ThreadPoolExecutor(workers, workers,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(configuration.getDetachedQueueCapacity()),
+                createThreadFactory(configuration.isDetachedVirtualThreads()),
+                createRejectionHandler(configuration.getDetachedRejectionPolicy(),
+                        configuration.getDetachedBlockTimeout()));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Create the factory for worker threads. Virtual threads are only available on Java 21 and later, so they are
+     * created reflectively, falling back to platform threads where they are not supported.
+     */
+    private static ThreadFactory createThreadFactory(final boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class)
+                        .invoke(builder, "lifecycle-script-detached-", 0L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.log(Level.WARNING, "Virtual threads are not supported, using platform threads for detached scripts");
+            }
+        }
+        return new ThreadFactoryBuilder()
+                .setNameFormat("lifecycle-script-detached-%d")
+                .setDaemon(true)
+                .build();
+    }
+
+    private RejectedExecutionHandler createRejectionHandler(final RejectionPolicy policy, final long blockTimeout) {
+        switch (policy) {
+            case DROP_OLDEST:
+                return (task, pool) -> {
+                    if (!pool.isShutdown()) {
+                        if (pool.getQueue().poll() != null) {
+                            rejected.increment();
+                            LOGGER.log(Level.WARNING, "Detached script queue is full, dropped the oldest queued script");
+                        }
+                        pool.execute(task);
+                    }
+                };
+            case BLOCK:
+                return (task, pool) -> {
+                    try {
+                        if (pool.isShutdown() || !pool.getQueue().offer(task, blockTimeout, TimeUnit.MILLISECONDS)) {
+                            rejected.increment();
+                            throw new RejectedExecutionException("Timed out waiting for room in the detached script queue");
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        rejected.increment();
+                        throw new RejectedExecutionException("Interrupted waiting for room in the detached script queue", e);
+                    }
+                };
+            case CALLER_RUNS:
+            default:
+                return (task, pool) -> {
+                    rejected.increment();
+                    if (!pool.isShutdown()) {
+                        task.run();
+                    }
+                };
+        }
+    }
+
+    /**
+     * Run a task on a worker, or as the rejection policy decides if the queue is full.
+     * @param task The task to run.
+     * @throws RejectedExecutionException If the task is dropped by the BLOCK policy.
+     */
+    void execute(final Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Stop accepting detached scripts, leaving the workers to run the scripts already queued.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return The number of detached scripts waiting for a worker.
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The approximate number of workers running a detached script.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return The number of detached scripts that found the queue full, and were run by the caller or dropped.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
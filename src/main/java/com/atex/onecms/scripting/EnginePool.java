@@ -0,0 +1,154 @@
+package com.atex.onecms.scripting;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.atex.onecms.scripting.backend.ScriptBackend;
+
+/**
+ * An EnginePool holds a fixed number of {@link PooledEngine}s that are checked out to run scripts and returned
+ * when they are done. Engines are created lazily, up to the size of the pool, and callers wait for an engine to be
+ * returned once they are all in use.
+ * A thread that already has an engine checked out, e.g. a script calling run or require, is given the same engine
+ * again, so nested calls never wait on the pool.
+ */
+final class EnginePool {
+
+    private final int size;
+
+    private final ScriptBackend backend;
+
+    private final LifecycleScriptingConfiguration configuration;
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final BlockingQueue<PooledEngine> idle = new LinkedBlockingQueue<>();
+
+    private final ThreadLocal<PooledEngine> current = new ThreadLocal<>();
+
+    /**
+     * Create a new EnginePool.
+     * @param size The maximum number of engines in the pool.
+     * @param backend The backend the engines' runtimes are created by.
+     * @param configuration The configuration the runtimes are created with.
+     */
+    EnginePool(final int size, final ScriptBackend backend, final LifecycleScriptingConfiguration configuration) {
+        this.size = size;
+        this.backend = backend;
+        this.configuration = configuration;
+    }
+
+    /**
+     * @return The maximum number of engines in the pool.
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Check out an engine. Every call must be matched by a call to {@link #release(PooledEngine)}.
+     * @return An engine that only the calling thread is using.
+     * @throws ScriptEngineException If the thread is interrupted while waiting for an engine.
+     */
+    PooledEngine acquire() throws ScriptEngineException {
+        PooledEngine engine = current.get();
+        if (engine == null) {
+            engine = idle.poll();
+            if (engine == null) {
+                engine = createOrWait();
+            }
+            current.set(engine);
+        }
+        engine.checkouts++;
+        return engine;
+    }
+
+    /**
+     * @return true if the calling thread has an engine checked out.
+     */
+    boolean isCheckedOut() {
+        return current.get() != null;
+    }
+
+    /**
+     * Create a new engine checked out to the calling thread, e.g. to warm it up before it runs any scripts. Like
+     * {@link #acquire()}, every engine returned must be released.
+     * @return A new engine, or null if the pool has already created all its engines.
+     */
+    PooledEngine create() {
+        int count = created.get();
+        while (count < size) {
+            if (created.compareAndSet(count, count + 1)) {
+                final PooledEngine engine = new PooledEngine(backend, configuration);
+                engine.checkouts++;
+                current.set(engine);
+                return engine;
+            }
+            count = created.get();
+        }
+        return null;
+    }
+
+    /**
+     * Return an engine to the pool.
+     * @param engine An engine checked out by the calling thread.
+     */
+    void release(final PooledEngine engine) {
+        if (engine.abandoned) {
+            if (current.get() == engine) {
+                current.remove();
+            }
+        } else if (--engine.checkouts == 0) {
+            current.remove();
+            idle.offer(engine);
+        }
+    }
+
+    /**
+     * Lend an engine checked out by another thread to the calling thread, while the other thread waits for it. Calls
+     * to {@link #acquire()} on the calling thread are given the lent engine, until {@link #disown(PooledEngine)}.
+     * @param engine The engine to lend.
+     */
+    void adopt(final PooledEngine engine) {
+        current.set(engine);
+    }
+
+    /**
+     * Stop lending an engine to the calling thread.
+     * @param engine The engine that was lent by {@link #adopt(PooledEngine)}.
+     */
+    void disown(final PooledEngine engine) {
+        if (current.get() == engine) {
+            current.remove();
+        }
+    }
+
+    /**
+     * Abandon an engine that is still running a script that has been aborted. The engine is never returned to the
+     * pool, and a new engine takes its place.
+     * @param engine The engine to abandon.
+     */
+    void abandon(final PooledEngine engine) {
+        if (!engine.abandoned) {
+            engine.abandoned = true;
+            idle.offer(new PooledEngine(backend, configuration));
+        }
+    }
+
+    private PooledEngine createOrWait() throws ScriptEngineException {
+        int count = created.get();
+        while (count < size) {
+            if (created.compareAndSet(count, count + 1)) {
+                return new PooledEngine(backend, configuration);
+            }
+            count = created.get();
+        }
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ScriptEngineException("Interrupted waiting for a script engine", e);
+        }
+    }
+}
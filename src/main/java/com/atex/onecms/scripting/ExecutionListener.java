@@ -0,0 +1,22 @@
+package com.atex.onecms.scripting;
+
+/**
+ * An ExecutionListener is told how long each phase of running scripts takes, so the cost of scripts can be traced
+ * or logged in production. Listeners are registered with
+ * {@link LifecycleScriptingEngine#addExecutionListener(ExecutionListener)}; when none are registered, phases are not
+ * timed at all.
+ * Listeners are called on the thread running the script, in the middle of running it, so they should be quick and
+ * must be thread safe. An exception thrown by a listener is logged and doesn't affect the script.
+ */
+@FunctionalInterface
+public interface ExecutionListener {
+
+    /**
+     * Called when a phase of running scripts has completed.
+     * @param scriptId The id of the script, or null for a phase of a trigger shared by all its scripts.
+     * @param contentType The content type scripts were triggered for, or null for a script run by id.
+     * @param phase The phase that completed.
+     * @param nanos The time the phase took in nanoseconds.
+     */
+    void phaseCompleted(String scriptId, String contentType, ExecutionPhase phase, long nanos);
+}
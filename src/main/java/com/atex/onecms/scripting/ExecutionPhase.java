@@ -0,0 +1,42 @@
+package com.atex.onecms.scripting;
+
+/**
+ * The phases of running scripts that are timed for {@link ExecutionListener}s. Phases for the whole call, such as
+ * {@link #LOOKUP}, {@link #CONTEXT_COPY} and {@link #COMMIT}, are reported without a script id when scripts are
+ * triggered, as they are shared by every script the trigger runs.
+ */
+public enum ExecutionPhase {
+    /**
+     * Looking up the script to run, or the scripts registered to a trigger, in the script caches.
+     */
+    LOOKUP,
+    /**
+     * Copying the caller's context, so changes can be discarded if a script fails. Content objects are only copied
+     * when a script first uses them, so copying them is part of {@link #EVALUATION}.
+     */
+    CONTEXT_COPY,
+    /**
+     * Checking out an engine from the pool, including waiting for one to be free.
+     */
+    ENGINE_CHECKOUT,
+    /**
+     * Getting the script compiled for the engine, which is only slow the first time the engine runs the script.
+     */
+    COMPILE,
+    /**
+     * Creating the script's bindings, including evaluating the library the first time the engine uses it.
+     */
+    BINDINGS,
+    /**
+     * Evaluating the script itself.
+     */
+    EVALUATION,
+    /**
+     * Copying the values the script bound back into the context.
+     */
+    COPY_BACK,
+    /**
+     * Returning the changes made by the scripts to the caller.
+     */
+    COMMIT
+}
@@ -0,0 +1,67 @@
+package com.atex.onecms.scripting;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the executions of a script, or of all the scripts for an event, as reported by
+ * {@link ScriptingStatisticsMXBean}. Latencies are in milliseconds, and percentiles are accurate to within 25%.
+ */
+public final class ExecutionStatistics {
+
+    private final long invocations;
+
+    private final long errors;
+
+    private final double meanMillis;
+
+    private final double p50Millis;
+
+    private final double p99Millis;
+
+    private final double maxMillis;
+
+    @ConstructorProperties({"invocations", "errors", "meanMillis", "p50Millis", "p99Millis", "maxMillis"})
+    public ExecutionStatistics(final long invocations,
+                               final long errors,
+                               final double meanMillis,
+                               final double p50Millis,
+                               final double p99Millis,
+                               final double maxMillis) {
+        this.invocations = invocations;
+        this.errors = errors;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @return The number of times the script ran.
+     */
+    public long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * @return The number of times the script failed, including being aborted for exceeding its budget.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+}
@@ -0,0 +1,41 @@
+package com.atex.onecms.scripting;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters for the executions of a script, or of all the scripts for an event.
+ */
+final class ExecutionStats {
+
+    private final LongAdder invocations = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * Record an execution.
+     * @param nanos The time the execution took in nanoseconds.
+     * @param failed true if the execution failed.
+     */
+    void record(final long nanos, final boolean failed) {
+        invocations.increment();
+        if (failed) {
+            errors.increment();
+        }
+        latencies.record(nanos);
+    }
+
+    /**
+     * @return A snapshot of the counters.
+     */
+    ExecutionStatistics snapshot() {
+        final long count = invocations.sum();
+        return new ExecutionStatistics(count,
+                errors.sum(),
+                count == 0 ? 0 : latencies.getTotalMillis() / count,
+                latencies.getPercentileMillis(50),
+                latencies.getPercentileMillis(99),
+                latencies.getMaxMillis());
+    }
+}
@@ -0,0 +1,86 @@
+package com.atex.onecms.scripting;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Times the phases of one call to the engine for its {@link ExecutionListener}s. A timer is only created when there
+ * are listeners, so callers pass null, and check for it, when nothing is listening.
+ * A timer is used by one thread at a time, following the call as it moves to a budgeted worker and back.
+ */
+final class ExecutionTimer {
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutionTimer.class.getName());
+
+    private final List<ExecutionListener> listeners;
+
+    private final String contentType;
+
+    private String scriptId;
+
+    private long mark;
+
+    private ExecutionTimer(final List<ExecutionListener> listeners, final String scriptId, final String contentType) {
+        this.listeners = listeners;
+        this.scriptId = scriptId;
+        this.contentType = contentType;
+        this.mark = System.nanoTime();
+    }
+
+    /**
+     * Start timing a call.
+     * @param listeners The registered listeners.
+     * @param scriptId The id of the script being run, or null for a trigger.
+     * @param contentType The content type scripts are triggered for, or null for a script run by id.
+     * @return A new timer, or null if there are no listeners.
+     */
+    static ExecutionTimer start(final List<ExecutionListener> listeners,
+                                final String scriptId,
+                                final String contentType) {
+        return listeners.isEmpty() ? null : new ExecutionTimer(listeners, scriptId, contentType);
+    }
+
+    /**
+     * Start timing a script of this call that runs at the same time as others, on another thread.
+     * @param id The id of the script.
+     * @return A new timer for the script.
+     */
+    ExecutionTimer forScript(final String id) {
+        return new ExecutionTimer(listeners, id, contentType);
+    }
+
+    /**
+     * Set the script the following phases belong to, and start timing from now.
+     * @param id The id of the script, or null for phases of the whole trigger.
+     */
+    void setScriptId(final String id) {
+        scriptId = id;
+        mark = System.nanoTime();
+    }
+
+    /**
+     * Start timing the next phase from now, leaving the time since the last phase unreported.
+     */
+    void restart() {
+        mark = System.nanoTime();
+    }
+
+    /**
+     * Report a phase as completed, timed from the end of the previous phase.
+     * @param phase The phase that completed.
+     */
+    void completed(final ExecutionPhase phase) {
+        final long now = System.nanoTime();
+        final long nanos = now - mark;
+        for (ExecutionListener listener : listeners) {
+            try {
+                listener.phaseCompleted(scriptId, contentType, phase, nanos);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Error in execution listener " + listener, e);
+            }
+        }
+        // Listener time is left out of the next phase.
+        mark = System.nanoTime();
+    }
+}
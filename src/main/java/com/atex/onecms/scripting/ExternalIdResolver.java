@@ -0,0 +1,96 @@
+package com.atex.onecms.scripting;
+
+import java.util.concurrent.TimeUnit;
+
+import com.atex.onecms.content.ContentManager;
+import com.atex.onecms.content.ContentVersionId;
+import com.atex.onecms.content.Subject;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * The ExternalIdResolver memoizes the resolution of external ids for the resolve script function, as scripts often
+ * resolve the same few ids on every save. Ids that don't resolve are cached too, for a shorter time, so content a
+ * script is waiting to be created is found soon after it is. A cached resolution is the version of the content at
+ * the time it was resolved, so it may be as old as the cache's time to live.
+ * Resolutions can be invalidated when content is known to have changed, see {@link #invalidate(String)}.
+ */
+public final class ExternalIdResolver {
+
+    private final LoadingCache<String, Resolution> resolutions;
+
+    private final long negativeTtlNanos;
+
+    /**
+     * Create a new ExternalIdResolver.
+     * @param contentManager The ContentManager to resolve ids with.
+     * @param configuration The configuration of the cache.
+     */
+    ExternalIdResolver(final ContentManager contentManager, final LifecycleScriptingConfiguration configuration) {
+        negativeTtlNanos = TimeUnit.SECONDS.toNanos(configuration.getResolveCacheNegativeTtl());
+        resolutions = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getResolveCacheSize())
+                .expireAfterWrite(configuration.getResolveCacheTtl(), TimeUnit.SECONDS)
+                .recordStats()
+                .build(new CacheLoader<String, Resolution>() {
+                    @Override
+                    public Resolution load(final String externalId) {
+                        return new Resolution(contentManager.resolve(externalId, Subject.NOBODY_CALLER));
+                    }
+                });
+    }
+
+    /**
+     * Resolve an external id.
+     * @param externalId The external id to resolve.
+     * @return The version of the content the id refers to, or null if no content has the id.
+     */
+    public ContentVersionId resolve(final String externalId) {
+        try {
+            Resolution resolution = resolutions.getUnchecked(externalId);
+            if (resolution.versionId == null && System.nanoTime() - resolution.resolvedAt > negativeTtlNanos) {
+                resolutions.invalidate(externalId);
+                resolution = resolutions.getUnchecked(externalId);
+            }
+            return resolution.versionId;
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Forget the resolution of an external id, e.g. when content with the id has been created or updated.
+     * @param externalId The external id.
+     */
+    public void invalidate(final String externalId) {
+        resolutions.invalidate(externalId);
+    }
+
+    /**
+     * Forget every resolution.
+     */
+    public void invalidateAll() {
+        resolutions.invalidateAll();
+    }
+
+    /**
+     * @return The hit, miss and load statistics of the cache.
+     */
+    public CacheStatistics getStatistics() {
+        return CacheStatistics.of(resolutions.stats());
+    }
+
+    private static final class Resolution {
+
+        private final ContentVersionId versionId;
+
+        private final long resolvedAt = System.nanoTime();
+
+        Resolution(final ContentVersionId versionId) {
+            this.versionId = versionId;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import java.io.Serializable;
+import java.util.List;
 
 @XmlRootElement
 @XmlAccessorType(XmlAccessType.FIELD)
@@ -32,6 +33,36 @@ public class LifecycleScript extends DamContentBean implements Serializable {
     @XmlElement
     private String script;
 
+    @XmlElement
+    private Long timeoutMillis;
+
+    @XmlElement
+    private Long cpuTimeMillis;
+
+    @XmlElement
+    private List<String> requires;
+
+    @XmlElement
+    private List<String> reads;
+
+    @XmlElement
+    private List<String> writes;
+
+    @XmlElement
+    private Boolean dynamic;
+
+    @XmlElement
+    private Boolean pure;
+
+    @XmlElement
+    private String analyzedSourceHash;
+
+    @XmlElement
+    private List<String> contextReads;
+
+    @XmlElement
+    private List<String> contextWrites;
+
     public LifecycleScript() {
         super.setObjectType(OBJECT_TYPE);
         super.setInputTemplate(INPUT_TEMPLATE);
@@ -112,4 +143,141 @@ public class LifecycleScript extends DamContentBean implements Serializable {
         this.script = script;
     }
 
+    /**
+     * The maximum wall-clock time the script may run for, in milliseconds. When not set, the engine's default
+     * script timeout applies.
+     *
+     * @return The timeout in milliseconds, or null to use the engine default.
+     */
+    public Long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(final Long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * The maximum CPU time the script may use, in milliseconds. When not set, the engine's default script CPU
+     * time applies.
+     *
+     * @return The CPU time budget in milliseconds, or null to use the engine default.
+     */
+    public Long getCpuTimeMillis() {
+        return cpuTimeMillis;
+    }
+
+    public void setCpuTimeMillis(final Long cpuTimeMillis) {
+        this.cpuTimeMillis = cpuTimeMillis;
+    }
+
+    /**
+     * The ids of the scripts this script requires, found when the script was saved.
+     *
+     * @return The required script ids, or null if the script hasn't been analyzed.
+     */
+    public List<String> getRequires() {
+        return requires;
+    }
+
+    public void setRequires(final List<String> requires) {
+        this.requires = requires;
+    }
+
+    /**
+     * The names this script reads, which include the context keys it uses, found when the script was saved.
+     *
+     * @return The names read, or null if the script hasn't been analyzed.
+     */
+    public List<String> getReads() {
+        return reads;
+    }
+
+    public void setReads(final List<String> reads) {
+        this.reads = reads;
+    }
+
+    /**
+     * The names this script may assign, found when the script was saved.
+     *
+     * @return The names written, or null if the script hasn't been analyzed.
+     */
+    public List<String> getWrites() {
+        return writes;
+    }
+
+    public void setWrites(final List<String> writes) {
+        this.writes = writes;
+    }
+
+    /**
+     * Whether this script can assign names that can't be found from its source, e.g. by using eval, found when the
+     * script was saved.
+     *
+     * @return true if the script is dynamic, or null if the script hasn't been analyzed.
+     */
+    public Boolean getDynamic() {
+        return dynamic;
+    }
+
+    public void setDynamic(final Boolean dynamic) {
+        this.dynamic = dynamic;
+    }
+
+    /**
+     * Whether this script is pure, i.e. it doesn't assign anything or call any functions, so it can't change its
+     * context, found when the script was saved.
+     *
+     * @return true if the script is pure, or null if the script hasn't been analyzed.
+     */
+    public Boolean getPure() {
+        return pure;
+    }
+
+    public void setPure(final Boolean pure) {
+        this.pure = pure;
+    }
+
+    /**
+     * The SHA-256 hash of the source the stored analysis was found from, so the engine only uses the analysis while
+     * it matches the source.
+     *
+     * @return The hash of the analyzed source, or null if the script hasn't been analyzed.
+     */
+    public String getAnalyzedSourceHash() {
+        return analyzedSourceHash;
+    }
+
+    public void setAnalyzedSourceHash(final String analyzedSourceHash) {
+        this.analyzedSourceHash = analyzedSourceHash;
+    }
+
+    /**
+     * The context keys this script reads, as declared by its author. Declaring the keys a script reads and writes
+     * lets a trigger run it at the same time as other scripts that don't write the same keys.
+     *
+     * @return The context keys read, or null if they aren't declared.
+     */
+    public List<String> getContextReads() {
+        return contextReads;
+    }
+
+    public void setContextReads(final List<String> contextReads) {
+        this.contextReads = contextReads;
+    }
+
+    /**
+     * The context keys this script changes, as declared by its author, including keys whose values it modifies, e.g.
+     * <code>content</code> for a script that sets an aspect. When a script runs at the same time as others, only the
+     * changes it makes to these keys are kept.
+     *
+     * @return The context keys written, or null if they aren't declared.
+     */
+    public List<String> getContextWrites() {
+        return contextWrites;
+    }
+
+    public void setContextWrites(final List<String> contextWrites) {
+        this.contextWrites = contextWrites;
+    }
 }
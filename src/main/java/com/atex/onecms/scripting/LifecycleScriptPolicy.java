@@ -1,5 +1,7 @@
 package com.atex.onecms.scripting;
 
+import javax.script.ScriptException;
+
 import com.atex.onecms.app.dam.policy.DamContentPolicy;
 import com.polopoly.application.Application;
 import com.polopoly.cm.client.CMException;
@@ -19,6 +21,13 @@ public class LifecycleScriptPolicy extends DamContentPolicy {
             return;
         }
 
+        // Reject scripts that don't compile, rather than failing every time they are triggered.
+        try {
+            ScriptAnalyzer.analyze(bean);
+        } catch (ScriptException e) {
+            throw new CMException("Script " + bean.getId() + " does not compile: " + e.getMessage(), e);
+        }
+
         updateFromBean(bean, this.getContentId());
     }
 }
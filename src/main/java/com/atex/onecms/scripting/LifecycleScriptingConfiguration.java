@@ -0,0 +1,685 @@
+package com.atex.onecms.scripting;
+
+import com.atex.onecms.scripting.backend.NashornBackend;
+
+/**
+ * Configuration for a {@link LifecycleScriptingEngine}. Defaults are read from system properties prefixed with
+ * <code>com.atex.onecms.scripting.</code>, so a node can be tuned without code changes, for example:
+ * <code>-Dcom.atex.onecms.scripting.enginePoolSize=8</code>.
+ */
+public class LifecycleScriptingConfiguration {
+
+    static final String PROPERTY_PREFIX = "com.atex.onecms.scripting.";
+
+    /**
+     * The name of the backend scripts run on.
+     */
+    private String scriptBackend;
+
+    /**
+     * Extra arguments Nashorn engines are created with.
+     */
+    private String nashornArguments;
+
+    /**
+     * The directory Nashorn persists compiled scripts in, or null to not persist them.
+     */
+    private String codeCacheDirectory;
+
+    /**
+     * Whether Nashorn compiles with optimistic types.
+     */
+    private boolean optimisticTypes;
+
+    /**
+     * Whether Nashorn compiles functions lazily.
+     */
+    private boolean lazyCompilation;
+
+    /**
+     * The number of script engines that can run scripts at the same time.
+     */
+    private int enginePoolSize;
+
+    /**
+     * Seconds between checks for new versions of cached scripts.
+     */
+    private int scriptCheckInterval;
+
+    /**
+     * The number of scripts loaded from the ContentManager at the same time.
+     */
+    private int scriptLoadParallelism;
+
+    /**
+     * Seconds workflow status definitions are cached for.
+     */
+    private long statusCacheTtl;
+
+    /**
+     * The number of external id resolutions cached for scripts.
+     */
+    private long resolveCacheSize;
+
+    /**
+     * Seconds external id resolutions are cached for.
+     */
+    private long resolveCacheTtl;
+
+    /**
+     * Seconds external ids that didn't resolve are cached for.
+     */
+    private long resolveCacheNegativeTtl;
+
+    /**
+     * The number of mail messages that can wait to be sent.
+     */
+    private int mailOutboxCapacity;
+
+    /**
+     * The most mail messages sent in one batch.
+     */
+    private int mailBatchSize;
+
+    /**
+     * The number of times a mail message is tried before it is dropped.
+     */
+    private int mailMaxAttempts;
+
+    /**
+     * Milliseconds before a failed mail message is retried.
+     */
+    private long mailRetryDelay;
+
+    /**
+     * The number of threads running detached scripts.
+     */
+    private int detachedWorkers;
+
+    /**
+     * The number of detached scripts that can wait for a worker.
+     */
+    private int detachedQueueCapacity;
+
+    /**
+     * What to do with a detached script when the queue is full.
+     */
+    private DetachedScriptExecutor.RejectionPolicy detachedRejectionPolicy;
+
+    /**
+     * Milliseconds to wait for room in the queue with the BLOCK rejection policy.
+     */
+    private long detachedBlockTimeout;
+
+    /**
+     * Run detached scripts on virtual threads where the runtime supports them.
+     */
+    private boolean detachedVirtualThreads;
+
+    /**
+     * The number of threads running scripts for runAsync and triggerAsync.
+     */
+    private int asyncWorkers;
+
+    /**
+     * Default wall-clock budget of a script in milliseconds, 0 for none.
+     */
+    private long scriptTimeout;
+
+    /**
+     * Default CPU time budget of a script in milliseconds, 0 for none.
+     */
+    private long scriptCpuTime;
+
+    /**
+     * Wall-clock budget of all the scripts run by a trigger in milliseconds, 0 for none.
+     */
+    private long triggerTimeout;
+
+    /**
+     * The most aborted scripts that may still be running before scripts with a budget fail straight away.
+     */
+    private int maxAbandonedScripts;
+
+    /**
+     * Whether a trigger runs scripts that don't conflict at the same time.
+     */
+    private boolean parallelTriggers;
+
+    /**
+     * Load and compile every script in the background when the engine is created.
+     */
+    private boolean warmUp;
+
+    /**
+     * The number of times warm-up runs each script on each engine.
+     */
+    private int warmUpInvocations;
+
+    /**
+     * Create a configuration with defaults taken from system properties. The properties are checked like values
+     * passed to the setters, so an invalid property fails when the configuration is created, rather than leaving
+     * e.g. an engine pool that can never give out an engine.
+     * @throws IllegalArgumentException If a system property has an invalid value.
+     */
+    public LifecycleScriptingConfiguration() {
+        setScriptBackend(System.getProperty(PROPERTY_PREFIX + "scriptBackend", NashornBackend.NAME));
+        setNashornArguments(System.getProperty(PROPERTY_PREFIX + "nashornArguments", ""));
+        setCodeCacheDirectory(System.getProperty(PROPERTY_PREFIX + "codeCacheDirectory"));
+        setOptimisticTypes(Boolean.getBoolean(PROPERTY_PREFIX + "optimisticTypes"));
+        setLazyCompilation(Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "lazyCompilation", "true")));
+        setEnginePoolSize(getInteger("enginePoolSize", Runtime.getRuntime().availableProcessors()));
+        setScriptCheckInterval(getInteger("scriptCheckInterval", 5));
+        setScriptLoadParallelism(getInteger("scriptLoadParallelism", 8));
+        setStatusCacheTtl(Long.getLong(PROPERTY_PREFIX + "statusCacheTtl", 60));
+        setResolveCacheSize(Long.getLong(PROPERTY_PREFIX + "resolveCacheSize", 10000));
+        setResolveCacheTtl(Long.getLong(PROPERTY_PREFIX + "resolveCacheTtl", 60));
+        setResolveCacheNegativeTtl(Long.getLong(PROPERTY_PREFIX + "resolveCacheNegativeTtl", 10));
+        setMailOutboxCapacity(getInteger("mailOutboxCapacity", 1000));
+        setMailBatchSize(getInteger("mailBatchSize", 50));
+        setMailMaxAttempts(getInteger("mailMaxAttempts", 3));
+        setMailRetryDelay(Long.getLong(PROPERTY_PREFIX + "mailRetryDelay", 1000));
+        setDetachedWorkers(getInteger("detachedWorkers", Runtime.getRuntime().availableProcessors()));
+        setDetachedQueueCapacity(getInteger("detachedQueueCapacity", 1000));
+        setDetachedRejectionPolicy(DetachedScriptExecutor.RejectionPolicy.valueOf(
+                System.getProperty(PROPERTY_PREFIX + "detachedRejectionPolicy",
+                        DetachedScriptExecutor.RejectionPolicy.CALLER_RUNS.name())));
+        setDetachedBlockTimeout(Long.getLong(PROPERTY_PREFIX + "detachedBlockTimeout", 1000));
+        setDetachedVirtualThreads(Boolean.getBoolean(PROPERTY_PREFIX + "detachedVirtualThreads"));
+        setAsyncWorkers(getInteger("asyncWorkers", enginePoolSize));
+        setScriptTimeout(Long.getLong(PROPERTY_PREFIX + "scriptTimeout", 0));
+        setScriptCpuTime(Long.getLong(PROPERTY_PREFIX + "scriptCpuTime", 0));
+        setTriggerTimeout(Long.getLong(PROPERTY_PREFIX + "triggerTimeout", 0));
+        setMaxAbandonedScripts(getInteger("maxAbandonedScripts", enginePoolSize));
+        setParallelTriggers(Boolean.getBoolean(PROPERTY_PREFIX + "parallelTriggers"));
+        setWarmUp(Boolean.getBoolean(PROPERTY_PREFIX + "warmUp"));
+        setWarmUpInvocations(getInteger("warmUpInvocations", 0));
+    }
+
+    static int getInteger(final String name, final int defaultValue) {
+        return Integer.getInteger(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+    /**
+     * The name of the {@link com.atex.onecms.scripting.backend.ScriptBackend} scripts run on, nashorn or graaljs.
+     *
+     * @return The script backend name.
+     */
+    public String getScriptBackend() {
+        return scriptBackend;
+    }
+
+    public void setScriptBackend(final String scriptBackend) {
+        if (scriptBackend == null || scriptBackend.isEmpty()) {
+            throw new IllegalArgumentException("scriptBackend must be set");
+        }
+        this.scriptBackend = scriptBackend;
+    }
+
+    /**
+     * Extra command line style arguments Nashorn engines are created with, separated by spaces, e.g.
+     * <code>--class-cache-size=100</code>. They are applied after the options set by the other properties, so they
+     * can override them.
+     *
+     * @return The Nashorn arguments.
+     */
+    public String getNashornArguments() {
+        return nashornArguments;
+    }
+
+    public void setNashornArguments(final String nashornArguments) {
+        if (nashornArguments == null) {
+            throw new IllegalArgumentException("nashornArguments must not be null");
+        }
+        this.nashornArguments = nashornArguments;
+    }
+
+    /**
+     * The directory Nashorn persists the classes it compiles scripts to in, so a restarted node loads the library
+     * and user scripts rather than compiling them again. Nashorn reads the directory from the
+     * <code>nashorn.persistent.code.cache</code> system property, which is set the first time an engine with a
+     * code cache directory is created. The property applies to the whole JVM, so the engines created after that keep
+     * using the first directory.
+     *
+     * @return The code cache directory, or null if compiled scripts aren't persisted.
+     */
+    public String getCodeCacheDirectory() {
+        return codeCacheDirectory;
+    }
+
+    public void setCodeCacheDirectory(final String codeCacheDirectory) {
+        if (codeCacheDirectory != null && codeCacheDirectory.isEmpty()) {
+            throw new IllegalArgumentException("codeCacheDirectory must not be empty");
+        }
+        this.codeCacheDirectory = codeCacheDirectory;
+    }
+
+    /**
+     * Whether Nashorn compiles scripts with optimistic types, which makes long running scripts faster at the cost of
+     * compiling slower.
+     *
+     * @return true if optimistic types are used.
+     */
+    public boolean isOptimisticTypes() {
+        return optimisticTypes;
+    }
+
+    public void setOptimisticTypes(final boolean optimisticTypes) {
+        this.optimisticTypes = optimisticTypes;
+    }
+
+    /**
+     * Whether Nashorn only compiles functions when they are first called, rather than compiling a whole script up
+     * front.
+     *
+     * @return true if functions are compiled lazily.
+     */
+    public boolean isLazyCompilation() {
+        return lazyCompilation;
+    }
+
+    public void setLazyCompilation(final boolean lazyCompilation) {
+        this.lazyCompilation = lazyCompilation;
+    }
+
+    /**
+     * The maximum number of script engines in the pool. Each engine runs one script at a time, so this is the
+     * number of scripts that can run in parallel.
+     *
+     * @return The engine pool size.
+     */
+    public int getEnginePoolSize() {
+        return enginePoolSize;
+    }
+
+    public void setEnginePoolSize(final int enginePoolSize) {
+        if (enginePoolSize < 1) {
+            throw new IllegalArgumentException("enginePoolSize must be at least 1");
+        }
+        this.enginePoolSize = enginePoolSize;
+    }
+
+    /**
+     * The number of seconds between background checks for new versions of the scripts the engine has cached.
+     * A script that has been edited is reloaded and compiled in the background, so it is picked up within this
+     * interval. The ScriptList is reloaded in the background at the same interval. An interval of 0 disables the
+     * background checks, so edits are only picked up when
+     * {@link LifecycleScriptingEngine#checkScriptVersions()} or {@link LifecycleScriptingEngine#refreshScriptList()}
+     * is called.
+     *
+     * @return The script check interval in seconds, or 0 if scripts aren't checked in the background.
+     */
+    public int getScriptCheckInterval() {
+        return scriptCheckInterval;
+    }
+
+    public void setScriptCheckInterval(final int scriptCheckInterval) {
+        if (scriptCheckInterval < 0) {
+            throw new IllegalArgumentException("scriptCheckInterval must not be negative");
+        }
+        this.scriptCheckInterval = scriptCheckInterval;
+    }
+
+    /**
+     * The number of scripts that are loaded from the ContentManager at the same time when the scripts of a
+     * ScriptList are loaded together, e.g. when the ScriptList changes.
+     *
+     * @return The script load parallelism.
+     */
+    public int getScriptLoadParallelism() {
+        return scriptLoadParallelism;
+    }
+
+    public void setScriptLoadParallelism(final int scriptLoadParallelism) {
+        if (scriptLoadParallelism < 1) {
+            throw new IllegalArgumentException("scriptLoadParallelism must be at least 1");
+        }
+        this.scriptLoadParallelism = scriptLoadParallelism;
+    }
+
+    /**
+     * The number of seconds workflow status definitions used by setWFStatus are cached for, so an edited status
+     * is picked up within this time.
+     *
+     * @return The status cache time to live in seconds.
+     */
+    public long getStatusCacheTtl() {
+        return statusCacheTtl;
+    }
+
+    public void setStatusCacheTtl(final long statusCacheTtl) {
+        if (statusCacheTtl < 1) {
+            throw new IllegalArgumentException("statusCacheTtl must be at least 1");
+        }
+        this.statusCacheTtl = statusCacheTtl;
+    }
+
+    /**
+     * The maximum number of external id resolutions the resolve script function caches.
+     *
+     * @return The resolve cache size.
+     */
+    public long getResolveCacheSize() {
+        return resolveCacheSize;
+    }
+
+    public void setResolveCacheSize(final long resolveCacheSize) {
+        if (resolveCacheSize < 0) {
+            throw new IllegalArgumentException("resolveCacheSize must not be negative");
+        }
+        this.resolveCacheSize = resolveCacheSize;
+    }
+
+    /**
+     * The number of seconds the resolve script function caches the version an external id resolves to, so a script
+     * may see a version this old.
+     *
+     * @return The resolve cache time to live in seconds.
+     */
+    public long getResolveCacheTtl() {
+        return resolveCacheTtl;
+    }
+
+    public void setResolveCacheTtl(final long resolveCacheTtl) {
+        if (resolveCacheTtl < 1) {
+            throw new IllegalArgumentException("resolveCacheTtl must be at least 1");
+        }
+        this.resolveCacheTtl = resolveCacheTtl;
+    }
+
+    /**
+     * The number of seconds the resolve script function caches that an external id doesn't resolve. This is usually
+     * shorter than the time to live of ids that do resolve, so new content is found soon after it is created.
+     *
+     * @return The time to live of failed resolutions in seconds.
+     */
+    public long getResolveCacheNegativeTtl() {
+        return resolveCacheNegativeTtl;
+    }
+
+    public void setResolveCacheNegativeTtl(final long resolveCacheNegativeTtl) {
+        if (resolveCacheNegativeTtl < 0) {
+            throw new IllegalArgumentException("resolveCacheNegativeTtl must not be negative");
+        }
+        this.resolveCacheNegativeTtl = resolveCacheNegativeTtl;
+    }
+
+    /**
+     * The number of mail messages sent with emailHostSMTP that can wait to be sent. Sending a message when the outbox
+     * is full fails.
+     *
+     * @return The mail outbox capacity.
+     */
+    public int getMailOutboxCapacity() {
+        return mailOutboxCapacity;
+    }
+
+    public void setMailOutboxCapacity(final int mailOutboxCapacity) {
+        if (mailOutboxCapacity < 1) {
+            throw new IllegalArgumentException("mailOutboxCapacity must be at least 1");
+        }
+        this.mailOutboxCapacity = mailOutboxCapacity;
+    }
+
+    /**
+     * The most mail messages taken from the outbox and sent together over pooled connections.
+     *
+     * @return The mail batch size.
+     */
+    public int getMailBatchSize() {
+        return mailBatchSize;
+    }
+
+    public void setMailBatchSize(final int mailBatchSize) {
+        if (mailBatchSize < 1) {
+            throw new IllegalArgumentException("mailBatchSize must be at least 1");
+        }
+        this.mailBatchSize = mailBatchSize;
+    }
+
+    /**
+     * The number of times a mail message is tried before it is logged and dropped.
+     *
+     * @return The mail attempts.
+     */
+    public int getMailMaxAttempts() {
+        return mailMaxAttempts;
+    }
+
+    public void setMailMaxAttempts(final int mailMaxAttempts) {
+        if (mailMaxAttempts < 1) {
+            throw new IllegalArgumentException("mailMaxAttempts must be at least 1");
+        }
+        this.mailMaxAttempts = mailMaxAttempts;
+    }
+
+    /**
+     * The number of milliseconds before a failed mail message is retried. The delay grows with each attempt.
+     *
+     * @return The mail retry delay in milliseconds.
+     */
+    public long getMailRetryDelay() {
+        return mailRetryDelay;
+    }
+
+    public void setMailRetryDelay(final long mailRetryDelay) {
+        if (mailRetryDelay < 0) {
+            throw new IllegalArgumentException("mailRetryDelay must not be negative");
+        }
+        this.mailRetryDelay = mailRetryDelay;
+    }
+
+    /**
+     * The number of threads that run detached scripts.
+     *
+     * @return The detached worker count.
+     */
+    public int getDetachedWorkers() {
+        return detachedWorkers;
+    }
+
+    public void setDetachedWorkers(final int detachedWorkers) {
+        if (detachedWorkers < 1) {
+            throw new IllegalArgumentException("detachedWorkers must be at least 1");
+        }
+        this.detachedWorkers = detachedWorkers;
+    }
+
+    /**
+     * The number of detached scripts that can wait for a worker before the rejection policy applies.
+     *
+     * @return The detached queue capacity.
+     */
+    public int getDetachedQueueCapacity() {
+        return detachedQueueCapacity;
+    }
+
+    public void setDetachedQueueCapacity(final int detachedQueueCapacity) {
+        if (detachedQueueCapacity < 1) {
+            throw new IllegalArgumentException("detachedQueueCapacity must be at least 1");
+        }
+        this.detachedQueueCapacity = detachedQueueCapacity;
+    }
+
+    /**
+     * What happens to a detached script when every worker is busy and the queue is full. Defaults to CALLER_RUNS.
+     *
+     * @return The detached rejection policy.
+     */
+    public DetachedScriptExecutor.RejectionPolicy getDetachedRejectionPolicy() {
+        return detachedRejectionPolicy;
+    }
+
+    public void setDetachedRejectionPolicy(final DetachedScriptExecutor.RejectionPolicy detachedRejectionPolicy) {
+        if (detachedRejectionPolicy == null) {
+            throw new IllegalArgumentException("detachedRejectionPolicy must not be null");
+        }
+        this.detachedRejectionPolicy = detachedRejectionPolicy;
+    }
+
+    /**
+     * The number of milliseconds the BLOCK rejection policy waits for room in the queue before dropping a script.
+     *
+     * @return The detached block timeout in milliseconds.
+     */
+    public long getDetachedBlockTimeout() {
+        return detachedBlockTimeout;
+    }
+
+    public void setDetachedBlockTimeout(final long detachedBlockTimeout) {
+        if (detachedBlockTimeout < 0) {
+            throw new IllegalArgumentException("detachedBlockTimeout must not be negative");
+        }
+        this.detachedBlockTimeout = detachedBlockTimeout;
+    }
+
+    /**
+     * Whether detached scripts run on virtual threads. Only supported on Java 21 and later, platform threads are
+     * used on earlier runtimes.
+     *
+     * @return true if detached scripts should run on virtual threads.
+     */
+    public boolean isDetachedVirtualThreads() {
+        return detachedVirtualThreads;
+    }
+
+    public void setDetachedVirtualThreads(final boolean detachedVirtualThreads) {
+        this.detachedVirtualThreads = detachedVirtualThreads;
+    }
+
+    /**
+     * The number of threads that run scripts for runAsync and triggerAsync when the caller doesn't provide an
+     * executor. Defaults to the engine pool size, as only that many scripts can run at once.
+     *
+     * @return The async worker count.
+     */
+    public int getAsyncWorkers() {
+        return asyncWorkers;
+    }
+
+    public void setAsyncWorkers(final int asyncWorkers) {
+        if (asyncWorkers < 1) {
+            throw new IllegalArgumentException("asyncWorkers must be at least 1");
+        }
+        this.asyncWorkers = asyncWorkers;
+    }
+
+    /**
+     * The wall-clock time a script may run for, in milliseconds, unless the script sets its own timeout.
+     * Scripts that run longer are aborted. 0, the default, means scripts have no timeout.
+     *
+     * @return The default script timeout in milliseconds.
+     */
+    public long getScriptTimeout() {
+        return scriptTimeout;
+    }
+
+    public void setScriptTimeout(final long scriptTimeout) {
+        if (scriptTimeout < 0) {
+            throw new IllegalArgumentException("scriptTimeout must not be negative");
+        }
+        this.scriptTimeout = scriptTimeout;
+    }
+
+    /**
+     * The CPU time a script may use, in milliseconds, unless the script sets its own CPU time budget.
+     * Scripts that use more are aborted. 0, the default, means scripts have no CPU time budget.
+     *
+     * @return The default script CPU time budget in milliseconds.
+     */
+    public long getScriptCpuTime() {
+        return scriptCpuTime;
+    }
+
+    public void setScriptCpuTime(final long scriptCpuTime) {
+        if (scriptCpuTime < 0) {
+            throw new IllegalArgumentException("scriptCpuTime must not be negative");
+        }
+        this.scriptCpuTime = scriptCpuTime;
+    }
+
+    /**
+     * The wall-clock time all the scripts run by one trigger may run for, in milliseconds. The script running when
+     * the budget runs out is aborted. 0, the default, means triggers have no timeout.
+     *
+     * @return The trigger timeout in milliseconds.
+     */
+    public long getTriggerTimeout() {
+        return triggerTimeout;
+    }
+
+    public void setTriggerTimeout(final long triggerTimeout) {
+        if (triggerTimeout < 0) {
+            throw new IllegalArgumentException("triggerTimeout must not be negative");
+        }
+        this.triggerTimeout = triggerTimeout;
+    }
+
+    /**
+     * The most aborted scripts that may still be running, e.g. scripts busy in JavaScript on Nashorn, which can't be
+     * cancelled. Each keeps a thread busy until it completes, so once this many are running, scripts with a budget
+     * fail straight away instead of starting. Defaults to the engine pool size.
+     *
+     * @return The most aborted scripts that may still be running.
+     */
+    public int getMaxAbandonedScripts() {
+        return maxAbandonedScripts;
+    }
+
+    public void setMaxAbandonedScripts(final int maxAbandonedScripts) {
+        if (maxAbandonedScripts < 1) {
+            throw new IllegalArgumentException("maxAbandonedScripts must be at least 1");
+        }
+        this.maxAbandonedScripts = maxAbandonedScripts;
+    }
+
+    /**
+     * Whether a trigger runs scripts that don't conflict at the same time, on separate engines. Scripts conflict when
+     * one reads or writes a context key that the other writes, using the keys declared on the script, or found by
+     * analyzing it if it doesn't declare them. Conflicting scripts still run one after the other, in order.
+     *
+     * @return true if triggers run scripts in parallel.
+     */
+    public boolean isParallelTriggers() {
+        return parallelTriggers;
+    }
+
+    public void setParallelTriggers(final boolean parallelTriggers) {
+        this.parallelTriggers = parallelTriggers;
+    }
+
+    /**
+     * Whether the engine warms up when it is created. Warm-up loads the ScriptList and all its scripts in parallel,
+     * then starts every engine in the pool and compiles the library and the scripts on it, so the first saves after
+     * a restart don't pay for it. Warm-up runs in the background, see {@link LifecycleScriptingEngine#isReady()}.
+     * Disabled by default.
+     *
+     * @return true if the engine warms up when it is created.
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(final boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * The number of times warm-up runs each script on each engine after compiling it, so Nashorn's optimistic
+     * recompilation is done before real saves. Scripts are run with an empty context, errors are ignored, and any
+     * side effects a script has are not undone, so only scripts that tolerate being run this way should be deployed
+     * with this set. 0, the default, means scripts are only compiled.
+     *
+     * @return The number of warm-up invocations.
+     */
+    public int getWarmUpInvocations() {
+        return warmUpInvocations;
+    }
+
+    public void setWarmUpInvocations(final int warmUpInvocations) {
+        if (warmUpInvocations < 0) {
+            throw new IllegalArgumentException("warmUpInvocations must not be negative");
+        }
+        this.warmUpInvocations = warmUpInvocations;
+    }
+}
@@ -1,55 +1,99 @@
 package com.atex.onecms.scripting;
 
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.ParametersAreNonnullByDefault;
-import javax.script.Bindings;
-import javax.script.Compilable;
-import javax.script.CompiledScript;
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
-import javax.script.SimpleScriptContext;
 
 import com.atex.onecms.content.ContentManager;
 import com.atex.onecms.content.ContentResult;
 import com.atex.onecms.content.ContentVersionId;
 import com.atex.onecms.content.Status;
 import com.atex.onecms.content.Subject;
+import com.atex.onecms.scripting.backend.CompiledCode;
+import com.atex.onecms.scripting.backend.ScriptBackends;
+import com.atex.onecms.scripting.backend.ScriptScope;
+import com.atex.onecms.scripting.mail.MailService;
+import com.atex.onecms.scripting.workflow.WorkflowStatusService;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.polopoly.cm.ExternalContentId;
-import com.rits.cloning.Cloner;
-import jdk.nashorn.api.scripting.NashornScriptEngine;
-import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
- * The LifecycleScriptingEngine stores and executes user scripts. The engine runs on top of the
- * Nashorn JavaScript engine.
+ * The LifecycleScriptingEngine stores and executes user scripts. The engine runs on top of a pool of
+ * Nashorn JavaScript engines, so scripts can run on as many threads as there are engines in the pool.
  */
 @SuppressWarnings("UnstableApiUsage")
-public final class LifecycleScriptingEngine {
+public final class LifecycleScriptingEngine implements AutoCloseable {
+
+    protected static final Logger LOGGER = Logger.getLogger(LifecycleScriptingEngine.class.getName());
 
     /**
-     * The library script that provides util functions for users.
+     * How long to wait before retrying the scripts in the ScriptList that failed to load.
      */
-    private CompiledScript libraryScript;
+    private static final long FAILED_SCRIPT_RETRY_MILLIS = 1000;
 
-    protected static final Logger LOGGER = Logger.getLogger(LifecycleScriptingEngine.class.getName());
 
-    private final NashornScriptEngine engine;
+    private final LifecycleScriptingConfiguration configuration;
+
+    private final EnginePool enginePool;
+
+    /**
+     * Runs scripts that have a time budget.
+     */
+    private final ScriptWatchdog watchdog;
+
+    private final DetachedScriptExecutor detachedScriptExecutor;
+
+    /**
+     * Runs scripts for runAsync and triggerAsync when the caller doesn't provide an executor.
+     */
+    private final ExecutorService asyncExecutor;
+
+    /**
+     * Cancels async scripts that run past their timeout, and cancels aborted scripts that ignore interrupts.
+     */
+    private final ScheduledExecutorService timeoutExecutor;
 
-    private final Executor detachedScriptExecutor;
+    /**
+     * Runs the background checks for changes to cached scripts, and reloads of the ScriptList.
+     */
+    private final ScheduledExecutorService refreshExecutor;
+
+    /**
+     * Loads the scripts of a ScriptList from the ContentManager concurrently.
+     */
+    private final ExecutorService scriptLoadExecutor;
 
     private final LoadingCache<String, CompilableScript> scriptCache;
 
@@ -57,38 +101,114 @@ public final class LifecycleScriptingEngine {
 
     private final ContentManager contentManager;
 
+    private final WorkflowStatusService workflowStatusService;
+
+    private final ExternalIdResolver externalIdResolver;
+
+    private final MailService mailService;
+
+    /**
+     * The version of the cached ScriptList, so a reload can skip fetching a ScriptList that hasn't changed.
+     */
+    private volatile ContentVersionId scriptListVersionId;
+
+    /**
+     * The scripts in the current ScriptList, indexed by event and content type.
+     */
+    private volatile TriggerIndex triggerIndex;
+
+    /**
+     * Incremented whenever a cached script changes, so trigger indexes built from older scripts are rebuilt.
+     */
+    private final AtomicLong scriptGeneration = new AtomicLong();
+
+    private final Object triggerIndexLock = new Object();
+
+    /**
+     * Set while a retry of the scripts that failed to load is scheduled, so only one is scheduled at a time.
+     */
+    private final AtomicBoolean failedScriptRetryScheduled = new AtomicBoolean();
+
+    /**
+     * Tracks the modules scripts require, so cached exports are invalidated when a module they depend on changes.
+     */
+    private final ModuleRegistry moduleRegistry = new ModuleRegistry();
+
+    /**
+     * Statistics of script executions, caches and detached scripts, also exposed through JMX.
+     */
+    private final ScriptingStatistics statistics;
+
+    /**
+     * Listeners told how long each phase of running scripts takes.
+     */
+    private final List<ExecutionListener> executionListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Completed when warm-up has finished, or straight away if the engine doesn't warm up.
+     */
+    private final CompletableFuture<Void> readiness;
+
     private static volatile LifecycleScriptingEngine INSTANCE;
 
     private static final Object LOCK = new Object();
 
-    private LifecycleScriptingEngine(final ContentManager cm) {
-        detachedScriptExecutor = Executors.newCachedThreadPool();
-        engine = (NashornScriptEngine) new NashornScriptEngineFactory().getScriptEngine();
+    LifecycleScriptingEngine(final ContentManager cm, final LifecycleScriptingConfiguration configuration) {
+        this.configuration = configuration;
+        detachedScriptExecutor = new DetachedScriptExecutor(configuration);
+        asyncExecutor = Executors.newFixedThreadPool(configuration.getAsyncWorkers(), new ThreadFactoryBuilder()
+                .setNameFormat("lifecycle-script-async-%d")
+                .setDaemon(true)
+                .build());
+        timeoutExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("lifecycle-script-timeout-%d")
+                .setDaemon(true)
+                .build());
+        enginePool = new EnginePool(configuration.getEnginePoolSize(),
+                ScriptBackends.get(configuration.getScriptBackend()), configuration);
+        watchdog = new ScriptWatchdog(timeoutExecutor, configuration.getEnginePoolSize(),
+                configuration.getMaxAbandonedScripts());
         contentManager = cm;
+        workflowStatusService = new WorkflowStatusService(cm, configuration.getStatusCacheTtl());
+        externalIdResolver = new ExternalIdResolver(cm, configuration);
+        mailService = new MailService(configuration.getMailOutboxCapacity(), configuration.getMailBatchSize(),
+                configuration.getMailMaxAttempts(), configuration.getMailRetryDelay());
+        scriptLoadExecutor = Executors.newFixedThreadPool(configuration.getScriptLoadParallelism(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lifecycle-script-load-%d")
+                        .setDaemon(true)
+                        .build());
         scriptCache = CacheBuilder.newBuilder()
                                 .maximumSize(1000)
-                                .expireAfterWrite(20, TimeUnit.SECONDS)
+                                .recordStats()
                                 .build(new CacheLoader<String, CompilableScript>() {
                                     @Override
                                     @ParametersAreNonnullByDefault
                                     public CompilableScript load(final String externalId) throws Exception {
                                         final ContentVersionId versionId =  cm.resolve(externalId, Subject.NOBODY_CALLER);
                                         if (versionId != null) {
-                                            ContentResult<LifecycleScript> result = cm.get(versionId,
-                                                    LifecycleScript.class,
-                                                    Subject.NOBODY_CALLER);
-                                            if (result != null && Status.OK.equals(result.getStatus())) {
-                                                return new CompilableScript(result.getContent().getContentData());
-                                            }
+                                            return loadScript(externalId, versionId);
                                         }
                                         throw new Exception("Cannot find " + externalId);
                                     }
                                 });
 
-        scriptListCache = CacheBuilder.newBuilder()
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("lifecycle-script-refresh-%d")
+                .setDaemon(true)
+                .build());
+        final long checkInterval = configuration.getScriptCheckInterval();
+
+        // The ScriptList is reloaded on the refresh executor, so triggers keep using the last good list rather than
+        // waiting for ContentManager, and a reload that fails leaves that list in place.
+        final CacheBuilder<Object, Object> scriptListCacheBuilder = CacheBuilder.newBuilder()
                 .maximumSize(1)
-                .refreshAfterWrite(5, TimeUnit.SECONDS)
-                .build(new CacheLoader<String, ScriptList>() {
+                .recordStats();
+        if (checkInterval > 0) {
+            scriptListCacheBuilder.refreshAfterWrite(checkInterval, TimeUnit.SECONDS);
+        }
+        scriptListCache = scriptListCacheBuilder
+                .build(CacheLoader.asyncReloading(new CacheLoader<String, ScriptList>() {
                     @Override
                     @ParametersAreNonnullByDefault
                     public ScriptList load(final String contentId) throws Exception {
@@ -96,24 +216,230 @@ public final class LifecycleScriptingEngine {
                         if (versionId != null) {
                             ContentResult<ScriptList> result = cm.get(versionId, ScriptList.class, Subject.NOBODY_CALLER);
                             if (result.getStatus().equals(Status.OK)) {
+                                scriptListVersionId = versionId;
                                 return result.getContent().getContentData();
                             }
                         }
                         throw new Exception("Cannot find " + contentId);
                     }
+
+                    @Override
+                    @ParametersAreNonnullByDefault
+                    public ListenableFuture<ScriptList> reload(final String contentId,
+                                                               final ScriptList oldValue) throws Exception {
+                        final ContentVersionId versionId =  cm.resolve(contentId, Subject.NOBODY_CALLER);
+                        if (versionId != null && versionId.equals(scriptListVersionId)) {
+                            return Futures.immediateFuture(oldValue);
+                        }
+                        // Load the scripts of a changed list here, in the background, rather than on the first
+                        // trigger to use it. Scripts that fail to load are retried rather than left out of the list.
+                        final ScriptList scriptList = load(contentId);
+                        final List<String> failedIds = new ArrayList<>();
+                        getScripts(TriggerIndex.getScriptIds(scriptList), failedIds);
+                        if (!failedIds.isEmpty()) {
+                            scheduleFailedScriptRetry(failedIds.toArray(new String[0]));
+                        }
+                        return Futures.immediateFuture(scriptList);
+                    }
+                }, refreshExecutor));
+
+        if (checkInterval > 0) {
+            refreshExecutor.scheduleWithFixedDelay(this::checkScriptVersions, checkInterval, checkInterval,
+                    TimeUnit.SECONDS);
+        }
+
+        statistics = new ScriptingStatistics(scriptCache, scriptListCache, externalIdResolver, detachedScriptExecutor,
+                watchdog);
+        statistics.register();
+
+        readiness = configuration.isWarmUp() ? warmUp() : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Warm up the engine in the background. The ScriptList and its scripts are loaded in parallel, then every engine
+     * in the pool is started, and the library and scripts are compiled on it, and optionally run.
+     * Failures are logged and leave the rest to be done lazily, so the engine is always ready once warm-up ends.
+     * @return A future completed when warm-up has finished.
+     */
+    private CompletableFuture<Void> warmUp() {
+        final long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> scriptListCache.getUnchecked(ScriptList.EXTERNAL_ID), asyncExecutor)
+                .thenCompose(scriptList -> CompletableFuture
+                        .supplyAsync(() -> getScripts(TriggerIndex.getScriptIds(scriptList)), asyncExecutor)
+                        .thenCompose(this::warmUpEngines)
+                        .thenRun(() -> getTriggerIndex(scriptList)))
+                .handle((result, error) -> {
+                    if (error != null) {
+                        LOGGER.log(Level.WARNING, "Error warming up scripting engine", error);
+                    } else {
+                        LOGGER.log(Level.INFO, "Warmed up scripting engine in "
+                                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+                    }
+                    return null;
                 });
     }
 
+    /**
+     * Start every engine the pool hasn't created yet, in parallel, and warm each one up.
+     */
+    private CompletableFuture<Void> warmUpEngines(final List<CompilableScript> scripts) {
+        final CompletableFuture<?>[] engines = new CompletableFuture<?>[enginePool.getSize()];
+        for (int i = 0; i < engines.length; i++) {
+            engines[i] = CompletableFuture.runAsync(() -> warmUpEngine(scripts), asyncExecutor);
+        }
+        return CompletableFuture.allOf(engines);
+    }
+
+    private void warmUpEngine(final List<CompilableScript> scripts) {
+        final PooledEngine pooledEngine = enginePool.create();
+        if (pooledEngine == null) {
+            // Every engine has been created already, by warm-up or by scripts that have run since.
+            return;
+        }
+        try {
+            pooledEngine.loadLibrary(contentManager, this);
+            for (CompilableScript compilableScript : scripts) {
+                try {
+                    compilableScript.getCompiledScript(pooledEngine.getRuntime());
+                } catch (ScriptException e) {
+                    LOGGER.log(Level.WARNING, "Error compiling script: " + compilableScript.getId(), e);
+                    continue;
+                }
+                for (int i = 0; i < configuration.getWarmUpInvocations(); i++) {
+                    try {
+                        runScript(compilableScript, new ContextMap(), null, null);
+                    } catch (ScriptEngineException e) {
+                        LOGGER.log(Level.FINE, "Error in warm-up run of script: " + compilableScript.getId(), e);
+                    }
+                }
+            }
+        } catch (ScriptEngineException e) {
+            LOGGER.log(Level.WARNING, "Error warming up script engine", e);
+        } finally {
+            enginePool.release(pooledEngine);
+        }
+    }
+
+    /**
+     * Check if the engine has finished warming up, e.g. for a health check that keeps traffic away from a node
+     * until it is warm. An engine that doesn't warm up is always ready.
+     * @return true if warm-up has finished.
+     */
+    public boolean isReady() {
+        return readiness.isDone();
+    }
+
+    /**
+     * Get a future that is completed when the engine has finished warming up.
+     * @return A future completed when the engine is ready.
+     */
+    public CompletableFuture<Void> whenReady() {
+        return readiness.thenApply(ignored -> null);
+    }
+
+    /**
+     * Close the engine, shutting down its background threads. Scripts already running or queued to run
+     * asynchronously or detached are left to complete, background checks for script changes stop, scripts that are
+     * past their budget are cancelled straight away, and mail still in the outbox isn't sent. Scripts can no longer be
+     * run asynchronously or detached. If this is the shared instance, the next call to getInstance creates a new
+     * engine.
+     */
+    @Override
+    public void close() {
+        synchronized (LOCK) {
+            if (INSTANCE == this) {
+                INSTANCE = null;
+            }
+        }
+        refreshExecutor.shutdownNow();
+        asyncExecutor.shutdown();
+        scriptLoadExecutor.shutdown();
+        detachedScriptExecutor.shutdown();
+        watchdog.shutdown();
+        timeoutExecutor.shutdownNow();
+        mailService.close();
+        statistics.unregister();
+    }
+
+    /**
+     * Load a version of a script.
+     * @param externalId The external id of the script.
+     * @param versionId The version of the script to load.
+     * @return The loaded script.
+     * @throws Exception If the script version cannot be loaded.
+     */
+    private CompilableScript loadScript(final String externalId, final ContentVersionId versionId) throws Exception {
+        ContentResult<LifecycleScript> result = contentManager.get(versionId, LifecycleScript.class, Subject.NOBODY_CALLER);
+        if (result != null && Status.OK.equals(result.getStatus())) {
+            return new CompilableScript(result.getContent().getContentData(), versionId);
+        }
+        throw new Exception("Cannot find " + externalId);
+    }
+
+    /**
+     * Check the cached scripts against the current version of each script, and reload any that have changed. The
+     * cached script keeps serving until the new version has been loaded and compiled. Scripts that no longer exist
+     * are removed from the cache. This runs in the background every scriptCheckInterval seconds, and can be called
+     * when the interval is 0, or to pick up an edit without waiting for the next check.
+     */
+    public void checkScriptVersions() {
+        boolean changed = false;
+        for (Map.Entry<String, CompilableScript> entry : scriptCache.asMap().entrySet()) {
+            final String externalId = entry.getKey();
+            try {
+                final ContentVersionId versionId = contentManager.resolve(externalId, Subject.NOBODY_CALLER);
+                if (versionId == null) {
+                    scriptCache.invalidate(externalId);
+                    moduleRegistry.invalidate(externalId);
+                    changed = true;
+                } else if (!versionId.equals(entry.getValue().getVersionId())) {
+                    CompilableScript compilableScript = loadScript(externalId, versionId);
+                    precompile(Collections.singletonList(compilableScript));
+                    scriptCache.put(externalId, compilableScript);
+                    moduleRegistry.invalidate(externalId);
+                    changed = true;
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error checking script version: " + externalId, e);
+            }
+        }
+        if (changed) {
+            scriptGeneration.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reload the ScriptList in the background, e.g. when it is known to have been edited, instead of waiting for
+     * the next periodic refresh. Triggers use the current list until the reload completes.
+     */
+    public void refreshScriptList() {
+        scriptListCache.refresh(ScriptList.EXTERNAL_ID);
+    }
+
     /**
      * Get the instance of the engine.
      * @param cm The ContentManager to use when loading scripts
      * @return The engine instance.
      */
     public static LifecycleScriptingEngine getInstance(final ContentManager cm) {
+        return getInstance(cm, null);
+    }
+
+    /**
+     * Get the instance of the engine, creating it with the given configuration if it doesn't exist yet.
+     * The configuration is ignored if the engine has already been created.
+     * @param cm The ContentManager to use when loading scripts
+     * @param configuration The configuration to create the engine with, or null for the defaults.
+     * @return The engine instance.
+     */
+    public static LifecycleScriptingEngine getInstance(final ContentManager cm,
+                                                       final LifecycleScriptingConfiguration configuration) {
         if (INSTANCE == null) {
             synchronized (LOCK) {
                 if (INSTANCE == null) {
-                    INSTANCE = new LifecycleScriptingEngine(cm);
+                    INSTANCE = new LifecycleScriptingEngine(cm, configuration != null
+                            ? configuration
+                            : new LifecycleScriptingConfiguration());
                 }
             }
         }
@@ -128,13 +454,75 @@ public final class LifecycleScriptingEngine {
      * @param context The context to execute the script in.
      */
     public void runDetached(final String scriptId, final ContextMap context) {
-        detachedScriptExecutor.execute(() -> {
-            try {
-                run(scriptId, context);
-            } catch (ScriptEngineException | ExecutionException e) {
-                LOGGER.log(Level.SEVERE, "Error running detached script " + scriptId, e);
-            }
-        });
+        try {
+            detachedScriptExecutor.execute(() -> {
+                try {
+                    run(scriptId, context);
+                } catch (ScriptEngineException | ExecutionException e) {
+                    LOGGER.log(Level.SEVERE, "Error running detached script " + scriptId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Dropped detached script " + scriptId, e);
+        }
+    }
+
+    /**
+     * Get the statistics of the engine, the same statistics that are exposed through JMX.
+     * @return The engine statistics.
+     */
+    public ScriptingStatisticsMXBean getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Register a listener to be told how long each phase of running scripts takes. Phases are only timed while
+     * there are listeners registered.
+     * @param listener The listener to add.
+     */
+    public void addExecutionListener(final ExecutionListener listener) {
+        executionListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener registered with {@link #addExecutionListener(ExecutionListener)}.
+     * @param listener The listener to remove.
+     */
+    public void removeExecutionListener(final ExecutionListener listener) {
+        executionListeners.remove(listener);
+    }
+
+    /**
+     * Get the resolver behind the resolve script function, e.g. to invalidate an external id whose content has
+     * changed.
+     * @return The external id resolver.
+     */
+    public ExternalIdResolver getExternalIdResolver() {
+        return externalIdResolver;
+    }
+
+    /**
+     * Get the service behind the setWFStatus and setWebStatus script functions.
+     * @return The workflow status service.
+     */
+    public WorkflowStatusService getWorkflowStatusService() {
+        return workflowStatusService;
+    }
+
+    /**
+     * Get the service behind the emailHostSMTP script function, to monitor its outbox.
+     * @return The mail service.
+     */
+    public MailService getMailService() {
+        return mailService;
+    }
+
+    /**
+     * Get the executor detached scripts run on, to monitor its queue depth, active count and rejected count.
+     * @return The detached script executor.
+     */
+    public DetachedScriptExecutor getDetachedScriptExecutor() {
+        return detachedScriptExecutor;
     }
 
     /**
@@ -146,15 +534,32 @@ public final class LifecycleScriptingEngine {
      * @throws ExecutionException Threading Exception
      */
     public ContextMap run(final String scriptId, final ContextMap contextData) throws ScriptEngineException, ExecutionException {
-        CompilableScript compilableScript = scriptCache.get("com.atex.script." + scriptId);
+        final String externalId = "com.atex.script." + scriptId;
+        final ExecutionTimer timer = ExecutionTimer.start(executionListeners, scriptId, null);
+        CompilableScript compilableScript = scriptCache.get(externalId);
         if (compilableScript == null) {
             throw new ScriptEngineException("No such script: " + scriptId);
         }
-        return executeScript(compilableScript, contextData);
+        if (timer != null) {
+            timer.completed(ExecutionPhase.LOOKUP);
+        }
+        ContextTransaction transaction = new ContextTransaction(contextData);
+        if (timer != null) {
+            timer.completed(ExecutionPhase.CONTEXT_COPY);
+        }
+        executeScript(compilableScript, transaction.getContext(), null, timer);
+        final ContextMap result = transaction.commit();
+        if (timer != null) {
+            timer.completed(ExecutionPhase.COMMIT);
+        }
+        return result;
     }
 
     /**
      * Run all scripts in the engine registered to a given event and content type.
+     * The scripts share one copy of the context, so changes made by a script are seen by the scripts after it, and
+     * the changes are only returned if every script succeeds. With parallel triggers configured, scripts that don't
+     * conflict run at the same time, see {@link LifecycleScriptingConfiguration#isParallelTriggers()}.
      * @param scriptType The event type to execute scripts for.
      * @param contentType The content type to execute scripts for. e.g atex.onecms.article
      * @param contextData The context to run this script in.
@@ -164,181 +569,689 @@ public final class LifecycleScriptingEngine {
     public ContextMap trigger(final ScriptType scriptType,
                               final String contentType,
                               final ContextMap contextData) throws ScriptEngineException {
-        ContextMap newContext = contextData;
+        final ExecutionTimer timer = ExecutionTimer.start(executionListeners, null, contentType);
+        CompilableScript[] scripts = getTriggeredScripts(scriptType, contentType);
+        if (timer != null) {
+            timer.completed(ExecutionPhase.LOOKUP);
+        }
+        if (scripts.length == 0) {
+            return contextData;
+        }
+        return executeScripts(scripts, contextData, timer);
+    }
+
+    /**
+     * Run all scripts registered to a given event and content type for each context in a batch, e.g. during a bulk
+     * import. The matching scripts are looked up once for the whole batch, and contexts are split into chunks that
+     * run in parallel, each on a single engine. Each context is run the same way as a call to
+     * {@link #trigger(ScriptType, String, ContextMap)}, so a script failing for one context doesn't affect the others.
+     * @param scriptType The event type to execute scripts for.
+     * @param contentType The content type to execute scripts for. e.g atex.onecms.article
+     * @param contexts The contexts to run scripts in.
+     * @return The result for each context, in the same order as the contexts.
+     * @throws ScriptEngineException If the thread is interrupted waiting for the batch to complete.
+     */
+    public List<TriggerResult> triggerBatch(final ScriptType scriptType,
+                                            final String contentType,
+                                            final List<ContextMap> contexts) throws ScriptEngineException {
+        final CompilableScript[] scripts = getTriggeredScripts(scriptType, contentType);
+        final TriggerResult[] results = new TriggerResult[contexts.size()];
+        final int chunkCount = Math.min(enginePool.getSize(), results.length);
+        if (chunkCount > 0) {
+            final int chunkSize = (results.length + chunkCount - 1) / chunkCount;
+            final List<CompletableFuture<Void>> chunks = new ArrayList<>(chunkCount);
+            for (int start = chunkSize; start < results.length; start += chunkSize) {
+                final int from = start;
+                final int to = Math.min(start + chunkSize, results.length);
+                chunks.add(CompletableFuture.runAsync(() -> triggerChunk(scripts, contentType, contexts, results, from, to),
+                        asyncExecutor));
+            }
+            // The calling thread runs the first chunk itself rather than waiting idle.
+            triggerChunk(scripts, contentType, contexts, results, 0, Math.min(chunkSize, results.length));
+            try {
+                CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ScriptEngineException("Interrupted waiting for batch to complete", e);
+            } catch (ExecutionException e) {
+                throw new ScriptEngineException("Error running batch", e.getCause());
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Run scripts for a range of contexts in a batch, holding one engine for the whole range.
+     */
+    private void triggerChunk(final CompilableScript[] scripts,
+                              final String contentType,
+                              final List<ContextMap> contexts,
+                              final TriggerResult[] results,
+                              final int from,
+                              final int to) {
+        PooledEngine pooledEngine = null;
+        try {
+            if (scripts.length > 0) {
+                pooledEngine = enginePool.acquire();
+            }
+            for (int i = from; i < to; i++) {
+                final ContextMap contextData = contexts.get(i);
+                try {
+                    results[i] = TriggerResult.success(scripts.length == 0
+                            ? contextData
+                            : executeScripts(scripts, contextData,
+                                    ExecutionTimer.start(executionListeners, null, contentType)));
+                } catch (ScriptEngineException e) {
+                    results[i] = TriggerResult.failure(e);
+                }
+            }
+        } catch (ScriptEngineException e) {
+            for (int i = from; i < to; i++) {
+                results[i] = TriggerResult.failure(e);
+            }
+        } finally {
+            if (pooledEngine != null) {
+                enginePool.release(pooledEngine);
+            }
+        }
+    }
+
+    /**
+     * Get the scripts registered to a given event and content type, in the order they should run.
+     * @param scriptType The event type to get scripts for.
+     * @param contentType The content type to get scripts for.
+     * @return The matching scripts, empty if the ScriptList cannot be loaded.
+     */
+    private CompilableScript[] getTriggeredScripts(final ScriptType scriptType, final String contentType) {
         ScriptList scriptList = null;
         try {
             scriptList = scriptListCache.get(ScriptList.EXTERNAL_ID);
         } catch (ExecutionException e) {
             LOGGER.log(Level.WARNING, "Failed to get ScriptList: " + ScriptList.EXTERNAL_ID, e);
         }
-        if (scriptList != null) {
-            for (ExternalContentId id : scriptList.getScripts()) {
-                CompilableScript compilableScript;
-                try {
-                    compilableScript = scriptCache.get(id.getExternalId());
+        if (scriptList == null) {
+            return new CompilableScript[0];
+        }
+        return getTriggerIndex(scriptList).getScripts(scriptType, contentType);
+    }
 
-                    if (ScriptType.valueOf(compilableScript.getEvent()) == scriptType
-                            && compilableScript.getContentType().matches(contentType)) {
-                        newContext = executeScript(compilableScript, newContext);
-                    }
-                } catch (ExecutionException e) {
-                    LOGGER.log(Level.WARNING, "Error executing script: " + id.getExternalId(), e);
+    /**
+     * Run a chain of scripts in one transaction.
+     * @param scripts The scripts to run, in order.
+     * @param contextData The context to run the scripts in.
+     * @param timer The timer for the trigger, or null if nothing is listening.
+     * @return A new context containing the changes made by the scripts.
+     * @throws ScriptEngineException If there is an error running any of the scripts.
+     */
+    private ContextMap executeScripts(final CompilableScript[] scripts,
+                                      final ContextMap contextData,
+                                      final ExecutionTimer timer) throws ScriptEngineException {
+        final Long triggerStart = configuration.getTriggerTimeout() > 0 ? System.nanoTime() : null;
+        ContextTransaction transaction = new ContextTransaction(contextData);
+        if (timer != null) {
+            timer.completed(ExecutionPhase.CONTEXT_COPY);
+        }
+        // A thread that already has an engine checked out runs scripts in order, so it can't wait on engines that
+        // are waiting on it.
+        if (configuration.isParallelTriggers() && scripts.length > 1 && !enginePool.isCheckedOut()) {
+            for (CompilableScript[] wave : TriggerWaves.split(scripts, enginePool.getSize())) {
+                if (wave.length == 1) {
+                    executeChained(wave[0], transaction, triggerStart, timer);
+                } else {
+                    executeWave(wave, transaction, triggerStart, timer);
                 }
+            }
+        } else {
+            for (CompilableScript compilableScript : scripts) {
+                executeChained(compilableScript, transaction, triggerStart, timer);
+            }
+        }
+        if (timer != null) {
+            timer.setScriptId(null);
+        }
+        final ContextMap result = transaction.commit();
+        if (timer != null) {
+            timer.completed(ExecutionPhase.COMMIT);
+        }
+        return result;
+    }
+
+    /**
+     * Run a script of a chain in the working context of the chain's transaction.
+     */
+    private void executeChained(final CompilableScript script,
+                                final ContextTransaction transaction,
+                                final Long triggerStart,
+                                final ExecutionTimer timer) throws ScriptEngineException {
+        if (timer != null) {
+            timer.setScriptId(script.getId());
+        }
+        executeScript(script, transaction.getContext(), triggerStart, timer);
+    }
+
+    /**
+     * Run a wave of scripts that don't conflict at the same time, each in its own branch of the chain's transaction.
+     * The calling thread runs every script that no worker has started, so the wave completes even when all the workers
+     * are busy. Once every script has completed, the keys each script writes are merged back in script order, or the
+     * error of the first script that failed is thrown.
+     */
+    private void executeWave(final CompilableScript[] wave,
+                             final ContextTransaction transaction,
+                             final Long triggerStart,
+                             final ExecutionTimer timer) throws ScriptEngineException {
+        transaction.getContext().put("contentManager", contentManager);
+        final ContextTransaction[] branches = new ContextTransaction[wave.length];
+        final List<FutureTask<ContextMap>> tasks = new ArrayList<>(wave.length);
+        for (int i = 0; i < wave.length; i++) {
+            final CompilableScript script = wave[i];
+            final ContextTransaction branch = transaction.branch();
+            final ExecutionTimer scriptTimer = timer != null ? timer.forScript(script.getId()) : null;
+            branches[i] = branch;
+            tasks.add(new FutureTask<>(() -> executeScript(script, branch.getContext(), triggerStart, scriptTimer)));
+        }
+        for (FutureTask<ContextMap> task : tasks.subList(1, tasks.size())) {
+            try {
+                asyncExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // The calling thread runs it below.
+            }
+        }
+        for (FutureTask<ContextMap> task : tasks) {
+            // Does nothing if a worker has already started the task.
+            task.run();
+        }
+        ScriptEngineException error = null;
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tasks.forEach(task -> task.cancel(true));
+                throw new ScriptEngineException("Interrupted waiting for scripts to complete", e);
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof ScriptEngineException
+                            ? (ScriptEngineException) e.getCause()
+                            : new ScriptEngineException("Error running script: " + wave[i].getId(), e.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        for (int i = 0; i < wave.length; i++) {
+            transaction.merge(branches[i], wave[i].getWriteKeys());
+        }
+    }
+
+    /**
+     * Run a script by ID without waiting for it to complete.
+     * @param scriptId The ID of the script to execute.
+     * @param contextData The context to run the script under.
+     * @return A future completed with the updated context, or the error from running the script.
+     * @see #runAsync(String, ContextMap, Executor)
+     */
+    public CompletableFuture<ContextMap> runAsync(final String scriptId, final ContextMap contextData) {
+        return runAsync(scriptId, contextData, asyncExecutor);
+    }
+
+    /**
+     * Run a script by ID on an executor. Cancelling the returned future stops the script from starting if it hasn't
+     * yet, and interrupts it if it has, which stops it waiting for an engine or in an interruptible Java call.
+     * @param scriptId The ID of the script to execute.
+     * @param contextData The context to run the script under.
+     * @param executor The executor to run the script on.
+     * @return A future completed with the updated context, or the error from running the script.
+     */
+    public CompletableFuture<ContextMap> runAsync(final String scriptId,
+                                                  final ContextMap contextData,
+                                                  final Executor executor) {
+        return submit(() -> run(scriptId, contextData), executor, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a script by ID without waiting for it to complete, cancelling it if it doesn't complete in time.
+     * @param scriptId The ID of the script to execute.
+     * @param contextData The context to run the script under.
+     * @param timeout The time to wait for the script to complete.
+     * @param unit The unit of the timeout.
+     * @return A future completed with the updated context, the error from running the script, or a
+     *         TimeoutException if the script didn't complete in time.
+     */
+    public CompletableFuture<ContextMap> runAsync(final String scriptId,
+                                                  final ContextMap contextData,
+                                                  final long timeout,
+                                                  final TimeUnit unit) {
+        return submit(() -> run(scriptId, contextData), asyncExecutor, timeout, unit);
+    }
+
+    /**
+     * Run all scripts registered to a given event and content type without waiting for them to complete.
+     * @param scriptType The event type to execute scripts for.
+     * @param contentType The content type to execute scripts for. e.g atex.onecms.article
+     * @param contextData The context to run the scripts in.
+     * @return A future completed with the updated context, or the error from running the scripts.
+     * @see #runAsync(String, ContextMap, Executor)
+     */
+    public CompletableFuture<ContextMap> triggerAsync(final ScriptType scriptType,
+                                                      final String contentType,
+                                                      final ContextMap contextData) {
+        return triggerAsync(scriptType, contentType, contextData, asyncExecutor);
+    }
+
+    /**
+     * Run all scripts registered to a given event and content type on an executor.
+     * @param scriptType The event type to execute scripts for.
+     * @param contentType The content type to execute scripts for. e.g atex.onecms.article
+     * @param contextData The context to run the scripts in.
+     * @param executor The executor to run the scripts on.
+     * @return A future completed with the updated context, or the error from running the scripts.
+     * @see #runAsync(String, ContextMap, Executor)
+     */
+    public CompletableFuture<ContextMap> triggerAsync(final ScriptType scriptType,
+                                                      final String contentType,
+                                                      final ContextMap contextData,
+                                                      final Executor executor) {
+        return submit(() -> trigger(scriptType, contentType, contextData), executor, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run all scripts registered to a given event and content type without waiting for them to complete, cancelling
+     * them if they don't complete in time.
+     * @param scriptType The event type to execute scripts for.
+     * @param contentType The content type to execute scripts for. e.g atex.onecms.article
+     * @param contextData The context to run the scripts in.
+     * @param timeout The time to wait for the scripts to complete.
+     * @param unit The unit of the timeout.
+     * @return A future completed with the updated context, the error from running the scripts, or a
+     *         TimeoutException if the scripts didn't complete in time.
+     */
+    public CompletableFuture<ContextMap> triggerAsync(final ScriptType scriptType,
+                                                      final String contentType,
+                                                      final ContextMap contextData,
+                                                      final long timeout,
+                                                      final TimeUnit unit) {
+        return submit(() -> trigger(scriptType, contentType, contextData), asyncExecutor, timeout, unit);
+    }
+
+    /**
+     * Run a task on an executor, completing a future with its result. Cancelling the future, or the timeout
+     * expiring, interrupts the task.
+     * @param timeout The time to wait for the task to complete, 0 to wait forever.
+     */
+    private CompletableFuture<ContextMap> submit(final Callable<ContextMap> callable,
+                                                 final Executor executor,
+                                                 final long timeout,
+                                                 final TimeUnit unit) {
+        final CompletableFuture<ContextMap> future = new CompletableFuture<>();
+        final FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                future.complete(callable.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+            return null;
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled() || error instanceof TimeoutException) {
+                task.cancel(true);
+            }
+        });
+        try {
+            if (timeout > 0) {
+                final ScheduledFuture<?> timer = timeoutExecutor.schedule(
+                        () -> future.completeExceptionally(new TimeoutException("Script timed out after " + timeout + " " + unit)),
+                        timeout, unit);
+                future.whenComplete((result, error) -> timer.cancel(false));
+            }
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 
+    /**
+     * Get the TriggerIndex for a ScriptList, rebuilding it if the ScriptList or any of its scripts have changed.
+     * If any of the scripts failed to load, they are retried in the background.
+     * @param scriptList The current ScriptList.
+     * @return An index of the scripts in the ScriptList.
+     */
+    private TriggerIndex getTriggerIndex(final ScriptList scriptList) {
+        TriggerIndex index = triggerIndex;
+        if (index == null || !index.isCurrent(scriptList, scriptGeneration.get())) {
+            synchronized (triggerIndexLock) {
+                index = triggerIndex;
+                if (index == null || !index.isCurrent(scriptList, scriptGeneration.get())) {
+                    index = buildTriggerIndex(scriptList);
+                    triggerIndex = index;
+                }
             }
         }
-        return newContext;
+        if (index.getFailedIds().length > 0) {
+            scheduleFailedScriptRetry(index.getFailedIds());
+        }
+        return index;
     }
 
-    private CompiledScript getCompiledLibraryScript() throws ScriptEngineException {
-        if (libraryScript == null) {
-            final InputStream scriptUtilStream = getClass().getClassLoader()
-                    .getResourceAsStream("com/atex/onecms/scripting/script-util.js");
+    /**
+     * Retry loading scripts that failed to load on the refresh executor, after a delay, so triggers don't wait for
+     * them and a script that keeps failing isn't fetched on every trigger. When any of them load, the script
+     * generation is incremented so the next trigger rebuilds its index with them.
+     * @param failedIds The external ids of the scripts that failed to load.
+     */
+    private void scheduleFailedScriptRetry(final String[] failedIds) {
+        if (failedScriptRetryScheduled.compareAndSet(false, true)) {
             try {
-                libraryScript = engine.compile(new InputStreamReader(Objects.requireNonNull(scriptUtilStream)));
-            } catch (ScriptException e) {
-                throw new ScriptEngineException("Error compiling Script Utils", e);
+                refreshExecutor.schedule(() -> {
+                    failedScriptRetryScheduled.set(false);
+                    if (!getScripts(failedIds).isEmpty()) {
+                        scriptGeneration.incrementAndGet();
+                    }
+                }, FAILED_SCRIPT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The engine is closing, so there is nothing to retry for.
             }
         }
-        return libraryScript;
     }
 
+    private TriggerIndex buildTriggerIndex(final ScriptList scriptList) {
+        final long generation = scriptGeneration.get();
+        final String[] scriptIds = TriggerIndex.getScriptIds(scriptList);
+        final List<CompilableScript> scripts = new ArrayList<>(scriptIds.length);
+        final List<String> failedIds = new ArrayList<>();
+        for (CompilableScript compilableScript : getScripts(scriptIds, failedIds)) {
+            if (compilableScript.getScriptType() == null) {
+                LOGGER.log(Level.WARNING, "Script " + compilableScript.getId() + " has an unknown event: "
+                        + compilableScript.getEvent());
+                continue;
+            }
+            scripts.add(compilableScript);
+        }
+        precompile(scripts);
+        precompile(getRequiredModules(scripts));
+        return new TriggerIndex(scriptIds, scripts, failedIds.toArray(new String[0]), generation);
+    }
+
+    /**
+     * Load the modules scripts require, directly or through other modules, from the requires found by analyzing the
+     * scripts, so they are cached before the scripts first run.
+     * @param scripts The scripts requiring modules.
+     * @return The modules that could be loaded.
+     */
+    private List<CompilableScript> getRequiredModules(final List<CompilableScript> scripts) {
+        final Set<String> moduleIds = new LinkedHashSet<>();
+        final List<CompilableScript> modules = new ArrayList<>();
+        List<CompilableScript> requiring = scripts;
+        while (!requiring.isEmpty()) {
+            final List<String> pending = new ArrayList<>();
+            for (CompilableScript compilableScript : requiring) {
+                for (String required : compilableScript.getAnalysis().getRequires()) {
+                    final String moduleId = "com.atex.script." + required;
+                    if (moduleIds.add(moduleId)) {
+                        pending.add(moduleId);
+                    }
+                }
+            }
+            requiring = getScripts(pending.toArray(new String[0]));
+            modules.addAll(requiring);
+        }
+        return modules;
+    }
+
+    /**
+     * Get scripts from the script cache, loading the scripts that aren't cached concurrently.
+     * @param scriptIds The external ids of the scripts.
+     * @return The scripts that could be loaded, in the same order as their ids.
+     */
+    private List<CompilableScript> getScripts(final String[] scriptIds) {
+        return getScripts(scriptIds, new ArrayList<>());
+    }
+
+    /**
+     * Get scripts from the script cache. The scripts that aren't cached are loaded concurrently on the script load
+     * executor, rather than one resolve and get after another on the calling thread.
+     * @param scriptIds The external ids of the scripts.
+     * @param failedIds Collects the external ids of the scripts that could not be loaded.
+     * @return The scripts that could be loaded, in the same order as their ids.
+     */
+    private List<CompilableScript> getScripts(final String[] scriptIds, final List<String> failedIds) {
+        final Map<String, CompilableScript> present = scriptCache.getAllPresent(Arrays.asList(scriptIds));
+        final Map<String, Future<CompilableScript>> loads = new HashMap<>();
+        for (String id : scriptIds) {
+            if (!present.containsKey(id) && !loads.containsKey(id)) {
+                loads.put(id, scriptLoadExecutor.submit(() -> scriptCache.get(id)));
+            }
+        }
+        final List<CompilableScript> scripts = new ArrayList<>(scriptIds.length);
+        for (String id : scriptIds) {
+            CompilableScript compilableScript = present.get(id);
+            if (compilableScript == null) {
+                try {
+                    compilableScript = Uninterruptibles.getUninterruptibly(loads.get(id));
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Error loading script: " + id, e.getCause());
+                    failedIds.add(id);
+                    continue;
+                }
+            }
+            scripts.add(compilableScript);
+        }
+        return scripts;
+    }
+
+    /**
+     * Compile scripts ahead of their first execution on the calling threads engine. Errors are only logged, they
+     * are reported again if the script is executed.
+     * @param scripts The scripts to compile.
+     */
+    private void precompile(final List<CompilableScript> scripts) {
+        if (scripts.isEmpty()) {
+            return;
+        }
+        PooledEngine pooledEngine;
+        try {
+            pooledEngine = enginePool.acquire();
+        } catch (ScriptEngineException e) {
+            LOGGER.log(Level.WARNING, "Cannot precompile scripts", e);
+            return;
+        }
+        try {
+            for (CompilableScript compilableScript : scripts) {
+                try {
+                    compilableScript.getCompiledScript(pooledEngine.getRuntime());
+                } catch (ScriptException e) {
+                    LOGGER.log(Level.WARNING, "Error compiling script: " + compilableScript.getId(), e);
+                }
+            }
+        } finally {
+            enginePool.release(pooledEngine);
+        }
+    }
 
     /**
      * Load a script in a similar fashion to a CommonJS module. Here, the script is executed in it's own
      * context, and the value of the "exports" binding is returned.
+     * The exports are cached by each engine, until the module's script, or any module it required, changes.
      * @param scriptId The ID of the script to require.
      * @return The value of the "exports" binding.
      * @throws ScriptEngineException If there is an error requiring the module.
      */
     public Object require(final String scriptId) throws ScriptEngineException {
+        final String moduleId = "com.atex.script." + scriptId;
+        PooledEngine pooledEngine = enginePool.acquire();
         try {
-            CompiledScript script = getScript(scriptId);
-            ScriptContext ctx = new SimpleScriptContext();
-            ctx.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
-            Bindings ctxBindings = ctx.getBindings(ScriptContext.ENGINE_SCOPE);
+            final Deque<String> requiring = pooledEngine.getRequiring();
+            if (requiring.contains(moduleId)) {
+                throw new ScriptEngineException("Circular require of script: " + scriptId);
+            }
+            // The dependency is recorded before the module is looked up, so a change to the module made after the
+            // lookup also invalidates the module requiring it.
+            if (!requiring.isEmpty()) {
+                moduleRegistry.addDependent(moduleId, requiring.peek());
+            }
+            final long generation = moduleRegistry.getGeneration(moduleId);
+            final CompilableScript compilableScript = getScript(scriptId, moduleId);
+            final ModuleRegistry.Module module = pooledEngine.getModule(moduleId);
+            if (module != null && module.isCurrent(compilableScript, moduleRegistry, moduleId)) {
+                return module.getExports();
+            }
 
-            script.eval(ctx);
-            return ctxBindings.get("exports");
+            final CompiledCode script = getCompiledScript(compilableScript, pooledEngine);
+            final Object exports;
+            requiring.push(moduleId);
+            try (ScriptScope scope = pooledEngine.createScope(contentManager, this)) {
+                scope.eval(script);
+                exports = scope.get("exports");
+            } finally {
+                requiring.pop();
+            }
+            pooledEngine.putModule(moduleId, new ModuleRegistry.Module(compilableScript, generation, exports));
+            return exports;
         } catch (ScriptEngineException | ScriptException e) {
             throw new ScriptEngineException("Error requiring script: " + scriptId, e);
+        } finally {
+            enginePool.release(pooledEngine);
         }
     }
 
-    private ContextMap runCompiledScripts(final ContextMap context, final CompiledScript... scripts) throws ScriptException {
-        ScriptContext ctx = new SimpleScriptContext();
-        ctx.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
-        Bindings ctxBindings = ctx.getBindings(ScriptContext.ENGINE_SCOPE);
-
-        // Bind key/values from data onto the engine.
-        for (Map.Entry<String, Object> content : context.entrySet()) {
-            ctxBindings.put(content.getKey(), content.getValue());
-        }
-        for (CompiledScript script : scripts) {
-            script.eval(ctx);
+    /**
+     * Run a compiled script in a new scope. The library script is shared with the script through the scope, so
+     * identifiers the script doesn't define itself are looked up in the library.
+     * Every context key is copied back from its global, as a script can change keys in ways its analysis can't see.
+     */
+    private ContextMap runCompiledScript(final PooledEngine pooledEngine,
+                                         final ContextMap context,
+                                         final CompiledCode script,
+                                         final ExecutionTimer timer) throws ScriptException, ScriptEngineException {
+        try (ScriptScope scope = pooledEngine.createScope(contentManager, this)) {
+            // Bind key/values from data onto the engine.
+            for (Map.Entry<String, Object> content : context.entrySet()) {
+                scope.put(content.getKey(), content.getValue());
+            }
+            if (timer != null) {
+                timer.completed(ExecutionPhase.BINDINGS);
+            }
+            scope.eval(script);
+            if (timer != null) {
+                timer.completed(ExecutionPhase.EVALUATION);
+            }
+            context.replaceAll((k, v) -> scope.get(k));
+            if (timer != null) {
+                timer.completed(ExecutionPhase.COPY_BACK);
+            }
         }
-        context.replaceAll((k, v) -> ctxBindings.get(k));
         return context;
     }
 
-    private CompiledScript getScript(final String scriptId) throws ScriptEngineException {
-        CompilableScript compilableScript;
+    private CompilableScript getScript(final String scriptId, final String externalId) throws ScriptEngineException {
         try {
-            compilableScript = scriptCache.get("com.atex.script." + scriptId);
+            return scriptCache.get(externalId);
         } catch (ExecutionException e) {
             throw new ScriptEngineException("Cannot get script: " + scriptId, e);
         }
+    }
 
+    private CompiledCode getCompiledScript(final CompilableScript compilableScript,
+                                           final PooledEngine pooledEngine) throws ScriptEngineException {
         try {
-            return compilableScript.getCompiledScript(engine);
+            return compilableScript.getCompiledScript(pooledEngine.getRuntime());
         } catch (ScriptException e) {
-            throw new ScriptEngineException("Cannot get compiled script: " + scriptId, e);
+            throw new ScriptEngineException("Cannot get compiled script: " + compilableScript.getId(), e);
         }
     }
 
     /**
-     * Execute a script under a specific context.
+     * Execute a script under a specific context. The context is modified in place, so it should be the working copy
+     * of a {@link ContextTransaction}.
+     * A script with a time budget is run by the {@link ScriptWatchdog}, unless it was run by another script, in
+     * which case it counts against the budget of that script.
      * @param script The script to execute.
      * @param context The context to execute under.
-     * @return A new updated context containing changes applied by the script.
+     * @param triggerStart The time the trigger running the script started, if the trigger has a time budget.
+     * @param timer The timer for the call running the script, or null if nothing is listening.
+     * @return The context, containing changes applied by the script.
+     * @throws ScriptBudgetException If the script exceeds its time budget.
      * @throws ScriptEngineException If there is an error compiling the script, or running the script.
      */
-    private ContextMap executeScript(final CompilableScript script, final ContextMap context) throws ScriptEngineException {
-        CompiledScript compiledScript = getScript(script.getId());
-        CompiledScript library = getCompiledLibraryScript();
-        context.put("contentManager", contentManager);
-        Cloner cloner = new Cloner();
-        cloner.dontClone(contentManager.getClass());
-        ContextMap newContext = cloner.deepClone(context);
+    private ContextMap executeScript(final CompilableScript script,
+                                     final ContextMap context,
+                                     final Long triggerStart,
+                                     final ExecutionTimer timer) throws ScriptEngineException {
+        final long start = System.nanoTime();
+        boolean failed = true;
         try {
-            newContext = runCompiledScripts(newContext, library, compiledScript);
-        } catch (ScriptException e) {
-            throw new ScriptEngineException("Error running script: " + script.getId(), e);
+            final ContextMap result = runScript(script, context, triggerStart, timer);
+            failed = false;
+            return result;
+        } finally {
+            statistics.record(script.getId(), script.getScriptType(), System.nanoTime() - start, failed);
         }
-        return newContext;
     }
 
-    /**
-     * A CompilableScript aggregates a LifecycleScript and it's corresponding CompiledScript. The CompiledScript
-     * is generated lazily from the LifecycleScript, and won't be created until the getCompiledScript function
-     * is called, which then only compiled the code in the LifecycleScript if necessary.
-     */
-    private static class CompilableScript {
-        /**
-         * The LifecycleScript to wrap.
-         */
-        private final LifecycleScript script;
-
-        /**
-         * The compiled script based on the lifecycle scripts code.
-         */
-        private CompiledScript compiledScript;
-
-        /**
-         * Create a new CompilableScript instance based off a given LifecycleScript.
-         * @param script The LifecycleScript to base this CompilableScript from.
-         */
-        CompilableScript(final LifecycleScript script) {
-            this.script = script;
+    private ContextMap runScript(final CompilableScript script,
+                                 final ContextMap context,
+                                 final Long triggerStart,
+                                 final ExecutionTimer timer) throws ScriptEngineException {
+        PooledEngine pooledEngine = enginePool.acquire();
+        if (timer != null) {
+            timer.completed(ExecutionPhase.ENGINE_CHECKOUT);
         }
-
-        /**
-         * Get the evaluated and compiled script for this CompilableScript. If the
-         * script hasn't yet been compiled, it will be compiled using the provided
-         * engine.
-         * @return A CompiledScript that can be executed on a ScriptEngine.
-         * @throws ScriptException If there is an error compiling the script.
-         */
-        CompiledScript getCompiledScript(final ScriptEngine engine) throws ScriptException {
-            if (compiledScript == null) {
-                compiledScript = ((Compilable) engine).compile(script.getScript());
+        try {
+            CompiledCode compiledScript = getCompiledScript(script, pooledEngine);
+            if (timer != null) {
+                timer.completed(ExecutionPhase.COMPILE);
+            }
+            context.put("contentManager", contentManager);
+            final ScriptWatchdog.Execution execution = () -> evaluateScript(script, pooledEngine, context, compiledScript, timer);
+            if (pooledEngine.executing > 0) {
+                return execution.run();
             }
-            return compiledScript;
-        }
-
 
-        /**
-         * Get the ID of the underlying LifecycleScript.
-         * @return The script ID.
-         */
-        String getId() {
-            return script.getId();
+            final long timeoutMillis = script.getTimeoutMillis() != null
+                    ? script.getTimeoutMillis()
+                    : configuration.getScriptTimeout();
+            final long cpuTimeMillis = script.getCpuTimeMillis() != null
+                    ? script.getCpuTimeMillis()
+                    : configuration.getScriptCpuTime();
+            long timeoutNanos = timeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+            ScriptBudgetException.Budget timeoutBudget = ScriptBudgetException.Budget.TIMEOUT;
+            long budgetMillis = timeoutMillis;
+            if (triggerStart != null) {
+                final long triggerRemaining = TimeUnit.MILLISECONDS.toNanos(configuration.getTriggerTimeout())
+                        - (System.nanoTime() - triggerStart);
+                if (triggerRemaining < timeoutNanos) {
+                    timeoutNanos = triggerRemaining;
+                    timeoutBudget = ScriptBudgetException.Budget.TRIGGER_TIMEOUT;
+                    budgetMillis = configuration.getTriggerTimeout();
+                }
+            }
+            if (timeoutNanos == Long.MAX_VALUE && cpuTimeMillis <= 0) {
+                return execution.run();
+            }
+            return watchdog.run(enginePool, pooledEngine, script.getId(), script.getVersionId(), execution,
+                    timeoutNanos, timeoutBudget, budgetMillis, cpuTimeMillis);
+        } finally {
+            enginePool.release(pooledEngine);
         }
+    }
 
-        /**
-         * Get the content type to match with the underlying LifecycleScript.
-         * @return The scripts content type.
-         */
-        String getContentType() {
-            return script.getScriptType();
+    private ContextMap evaluateScript(final CompilableScript script,
+                                      final PooledEngine pooledEngine,
+                                      final ContextMap context,
+                                      final CompiledCode compiledScript,
+                                      final ExecutionTimer timer) throws ScriptEngineException {
+        pooledEngine.executing++;
+        if (timer != null) {
+            // Handing the script to a budgeted worker isn't part of any phase.
+            timer.restart();
         }
-
-        /**
-         * Get the event within the underlying LifecycleScript.
-         * @return The event this script should run during.
-         */
-        String getEvent() {
-            return script.getEvent();
+        try {
+            return runCompiledScript(pooledEngine, context, compiledScript, timer);
+        } catch (ScriptException e) {
+            throw new ScriptEngineException("Error running script: " + script.getId(), e);
+        } finally {
+            pooledEngine.executing--;
         }
     }
 }
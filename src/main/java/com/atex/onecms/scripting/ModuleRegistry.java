@@ -0,0 +1,107 @@
+package com.atex.onecms.scripting;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ModuleRegistry tracks which modules were required by which other modules, so that when a module's script
+ * changes, the cached exports of every module that depends on it, directly or through other modules, are invalidated
+ * along with its own. Exports themselves are cached per engine, see {@link PooledEngine#getModule(String)}, as they
+ * belong to the engine they were evaluated on. Each module has a generation, which is incremented when it is
+ * invalidated, and cached exports are only used while the generation they were evaluated at is current.
+ */
+final class ModuleRegistry {
+
+    /**
+     * The ids of the modules that required each module.
+     */
+    private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+
+    /**
+     * Record that a module was required while another module was being evaluated.
+     * @param moduleId The external id of the required module.
+     * @param dependentId The external id of the module that required it.
+     */
+    void addDependent(final String moduleId, final String dependentId) {
+        dependents.computeIfAbsent(moduleId, id -> ConcurrentHashMap.newKeySet()).add(dependentId);
+    }
+
+    /**
+     * Get the modules that required a module.
+     * @param moduleId The external id of the module.
+     * @return The external ids of the modules that directly depend on it.
+     */
+    Set<String> getDependents(final String moduleId) {
+        return Collections.unmodifiableSet(dependents.getOrDefault(moduleId, Collections.emptySet()));
+    }
+
+    /**
+     * Get the current generation of a module.
+     * @param moduleId The external id of the module.
+     * @return The generation that cached exports must have been evaluated at to be used.
+     */
+    long getGeneration(final String moduleId) {
+        return generations.getOrDefault(moduleId, 0L);
+    }
+
+    /**
+     * Invalidate a module, and every module that depends on it.
+     * @param moduleId The external id of the module that has changed.
+     */
+    void invalidate(final String moduleId) {
+        final Set<String> visited = new HashSet<>();
+        final Deque<String> pending = new ArrayDeque<>();
+        pending.push(moduleId);
+        while (!pending.isEmpty()) {
+            final String id = pending.pop();
+            if (visited.add(id)) {
+                generations.merge(id, 1L, Long::sum);
+                // Dependents are recorded again when they are next evaluated.
+                final Set<String> moduleDependents = dependents.remove(id);
+                if (moduleDependents != null) {
+                    moduleDependents.forEach(pending::push);
+                }
+            }
+        }
+    }
+
+    /**
+     * The exports of a module evaluated on an engine.
+     */
+    static final class Module {
+
+        private final CompilableScript script;
+
+        private final long generation;
+
+        private final Object exports;
+
+        Module(final CompilableScript script, final long generation, final Object exports) {
+            this.script = script;
+            this.generation = generation;
+            this.exports = exports;
+        }
+
+        /**
+         * Check if the exports can still be used.
+         * @param currentScript The current version of the module's script.
+         * @param registry The registry tracking the module's generation.
+         * @param moduleId The external id of the module.
+         * @return true if the module was evaluated from the current script, and hasn't been invalidated since.
+         */
+        boolean isCurrent(final CompilableScript currentScript, final ModuleRegistry registry, final String moduleId) {
+            return script == currentScript && generation == registry.getGeneration(moduleId);
+        }
+
+        Object getExports() {
+            return exports;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.atex.onecms.scripting;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.script.ScriptException;
+
+import com.atex.onecms.content.ContentManager;
+import com.atex.onecms.scripting.backend.ScriptBackend;
+import com.atex.onecms.scripting.backend.ScriptRuntime;
+import com.atex.onecms.scripting.backend.ScriptScope;
+import com.google.common.io.CharStreams;
+
+/**
+ * A PooledEngine is a script runtime owned by an {@link EnginePool}, along with the library script evaluated for it.
+ * Scripts compiled by one runtime are only ever run on that runtime, and a runtime is only used by one thread at a
+ * time. The library script is evaluated once per runtime, and scripts see its globals from the scopes they run in,
+ * so running a script doesn't have to evaluate the library again.
+ */
+final class PooledEngine {
+
+    /**
+     * Freezes the functions the library script defines, so scripts sharing the library can't modify them.
+     */
+    private static final String FREEZE_LIBRARY = "Object.keys(this).forEach(function (key) {"
+            + " if (this[key] instanceof Function) { Object.freeze(this[key]); } }, this);";
+
+    private final ScriptBackend backend;
+
+    private final LifecycleScriptingConfiguration configuration;
+
+    private ScriptRuntime runtime;
+
+    /**
+     * Whether the library script that provides util functions for users has been evaluated on the runtime.
+     */
+    private boolean libraryLoaded;
+
+    /**
+     * The exports of modules required on this engine, by external id.
+     */
+    private final Map<String, ModuleRegistry.Module> modules = new HashMap<>();
+
+    /**
+     * The external ids of the modules being evaluated on this engine, innermost first.
+     */
+    private final Deque<String> requiring = new ArrayDeque<>();
+
+    /**
+     * The number of times the owning thread has checked this engine out without returning it.
+     */
+    int checkouts;
+
+    /**
+     * The number of scripts being evaluated on this engine, more than one when a script runs another script.
+     */
+    int executing;
+
+    /**
+     * Set when the engine was running a script that has been aborted, so it must not be used again.
+     */
+    volatile boolean abandoned;
+
+    PooledEngine(final ScriptBackend backend, final LifecycleScriptingConfiguration configuration) {
+        this.backend = backend;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Get the runtime, creating it on first use, so a replacement for an abandoned engine is cheap to create until
+     * it is needed.
+     * @return The script runtime.
+     */
+    ScriptRuntime getRuntime() {
+        if (runtime == null) {
+            runtime = backend.createRuntime(configuration);
+        }
+        return runtime;
+    }
+
+    /**
+     * Evaluate the library script on the runtime, if it hasn't been already.
+     * @param contentManager The ContentManager library functions use.
+     * @param owner The engine running scripts on this engine, which library functions such as run and require use.
+     * @throws ScriptEngineException If the library script cannot be evaluated.
+     */
+    void loadLibrary(final ContentManager contentManager, final LifecycleScriptingEngine owner)
+            throws ScriptEngineException {
+        if (!libraryLoaded) {
+            final Map<String, Object> globals = new HashMap<>();
+            globals.put("contentManager", contentManager);
+            globals.put("lifecycleScriptingEngine", owner);
+            try {
+                getRuntime().loadLibrary(LibraryHolder.SOURCE, globals);
+            } catch (ScriptException e) {
+                throw new ScriptEngineException("Error compiling Script Utils", e);
+            }
+            libraryLoaded = true;
+        }
+    }
+
+    /**
+     * Create a scope to run a script in, evaluating the library script first if needed.
+     * @param contentManager The ContentManager library functions use.
+     * @param owner The engine running scripts on this engine, which library functions such as run and require use.
+     * @return A new scope, which sees the globals of the library script.
+     * @throws ScriptEngineException If the library script cannot be evaluated.
+     */
+    ScriptScope createScope(final ContentManager contentManager, final LifecycleScriptingEngine owner)
+            throws ScriptEngineException {
+        loadLibrary(contentManager, owner);
+        return getRuntime().createScope();
+    }
+
+    /**
+     * Stop the script running on this engine from another thread, after the engine has been abandoned.
+     */
+    void cancel() {
+        if (runtime != null) {
+            runtime.cancel();
+        }
+    }
+
+    /**
+     * The source of the library script, read once.
+     */
+    private static final class LibraryHolder {
+        private static final String SOURCE = readLibrary() + "\n" + FREEZE_LIBRARY;
+
+        private static String readLibrary() {
+            final InputStream stream = PooledEngine.class.getClassLoader()
+                    .getResourceAsStream("com/atex/onecms/scripting/script-util.js");
+            try (Reader reader = new InputStreamReader(Objects.requireNonNull(stream), StandardCharsets.UTF_8)) {
+                return CharStreams.toString(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Get the exports of a module cached by this engine.
+     * @param moduleId The external id of the module.
+     * @return The cached module, or null if it hasn't been required on this engine.
+     */
+    ModuleRegistry.Module getModule(final String moduleId) {
+        return modules.get(moduleId);
+    }
+
+    void putModule(final String moduleId, final ModuleRegistry.Module module) {
+        modules.put(moduleId, module);
+    }
+
+    /**
+     * @return The external ids of the modules being evaluated on this engine, innermost first.
+     */
+    Deque<String> getRequiring() {
+        return requiring;
+    }
+}
@@ -0,0 +1,493 @@
+package com.atex.onecms.scripting;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.script.ScriptException;
+
+import com.atex.onecms.scripting.backend.ScriptBackends;
+import com.atex.onecms.scripting.backend.ScriptRuntime;
+import com.google.common.hash.Hashing;
+
+/**
+ * The ScriptAnalyzer checks a script compiles, and works out what it does to its context, when the script is saved.
+ * The results are stored on the {@link LifecycleScript}, with a hash of the source they were found from. The engine
+ * uses the stored results of a script while they match its source, and analyzes the source again when they don't,
+ * e.g. for a script saved before it was analyzed, or whose source was changed without saving it through its policy.
+ * It only uses the analysis to find the modules to load and to plan which scripts of a trigger may run at the same
+ * time; every context key is copied back after a script runs, whatever the analysis says.
+ * The analysis is lexical and errs on the side of caution: names are tracked without regard to scope, so a local
+ * variable that shares the name of a context key counts as a write of that key, every name in a destructuring
+ * pattern counts as written, and a script that can write its globals in ways that can't be seen from its source,
+ * e.g. through eval, this or globalThis, is treated as writing everything.
+ */
+final class ScriptAnalyzer {
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "break", "case", "catch", "class", "const", "continue", "debugger", "default", "delete", "do", "else",
+            "export", "extends", "false", "finally", "for", "function", "if", "import", "in", "instanceof", "let",
+            "new", "null", "return", "super", "switch", "this", "throw", "true", "try", "typeof", "var", "void",
+            "while", "with", "yield"));
+
+    /**
+     * Keywords a regular expression, rather than a division, can follow.
+     */
+    private static final Set<String> REGEX_PREFIX_KEYWORDS = new HashSet<>(Arrays.asList(
+            "case", "delete", "do", "else", "in", "instanceof", "new", "return", "throw", "typeof", "void"));
+
+    /**
+     * Names that give access to globals the analysis can't see.
+     */
+    private static final Set<String> DYNAMIC_NAMES = new HashSet<>(Arrays.asList(
+            "eval", "Function", "load", "loadWithNewGlobal", "globalThis"));
+
+    private static final Set<String> ASSIGNMENT_OPERATORS = new HashSet<>(Arrays.asList(
+            "=", "+=", "-=", "*=", "/=", "%=", "<<=", ">>=", ">>>=", "&=", "|=", "^=", "**="));
+
+    /**
+     * Punctuators, longest first so the longest match wins.
+     */
+    private static final String[] PUNCTUATORS = {
+            ">>>=", "===", "!==", ">>>", "<<=", ">>=", "**=", "...",
+            "=>", "==", "!=", "<=", ">=", "&&", "||", "++", "--", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=",
+            "<<", ">>", "**"};
+
+    private ScriptAnalyzer() {
+    }
+
+    /**
+     * Compile and analyze a script, storing the analysis on the script.
+     * @param script The script to analyze.
+     * @throws ScriptException If the script doesn't compile.
+     */
+    static void analyze(final LifecycleScript script) throws ScriptException {
+        final String source = script.getScript() != null ? script.getScript() : "";
+        synchronized (CompilerHolder.COMPILER) {
+            CompilerHolder.COMPILER.compile(script.getId(), source);
+        }
+        scan(source).applyTo(script);
+        script.setAnalyzedSourceHash(hash(source));
+    }
+
+    /**
+     * Get the analysis stored on a script when it was saved, if it was found from the script's current source.
+     * @param script The script.
+     * @return The stored analysis, or null if the script hasn't been analyzed, or its source has changed since.
+     */
+    static Analysis getStored(final LifecycleScript script) {
+        if (script.getAnalyzedSourceHash() == null || script.getRequires() == null || script.getReads() == null
+                || script.getDynamic() == null || script.getPure() == null
+                || (!script.getDynamic() && script.getWrites() == null)
+                || !script.getAnalyzedSourceHash().equals(hash(script.getScript() != null ? script.getScript() : ""))) {
+            return null;
+        }
+        return new Analysis(new ArrayList<>(script.getRequires()), new ArrayList<>(script.getReads()),
+                script.getDynamic() ? null : new ArrayList<>(script.getWrites()), script.getPure());
+    }
+
+    private static String hash(final String source) {
+        return Hashing.sha256().hashString(source, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * The runtime scripts are compiled with to check them, from the configured backend, created when the first script
+     * is analyzed.
+     */
+    private static final class CompilerHolder {
+        private static final ScriptRuntime COMPILER = createCompiler();
+
+        private static ScriptRuntime createCompiler() {
+            final LifecycleScriptingConfiguration configuration = new LifecycleScriptingConfiguration();
+            return ScriptBackends.get(configuration.getScriptBackend()).createRuntime(configuration);
+        }
+    }
+
+    /**
+     * Analyze the source of a script, without compiling it.
+     * @param source The source of the script.
+     * @return The analysis of the script.
+     */
+    static Analysis scan(final String source) {
+        final List<Token> tokens = tokenize(source != null ? source : "");
+        final boolean[] patterns = findPatterns(tokens);
+        final Set<String> requires = new LinkedHashSet<>();
+        final Set<String> reads = new LinkedHashSet<>();
+        final Set<String> writes = new LinkedHashSet<>();
+        boolean dynamic = false;
+        boolean mutating = false;
+        for (int i = 0; i < tokens.size(); i++) {
+            final Token token = tokens.get(i);
+            final String previous = i > 0 ? tokens.get(i - 1).text : "";
+            final String next = i + 1 < tokens.size() ? tokens.get(i + 1).text : "";
+            if (token.type == TokenType.PUNCTUATOR) {
+                if (ASSIGNMENT_OPERATORS.contains(token.text) || token.text.equals("++") || token.text.equals("--")) {
+                    mutating = true;
+                } else if (token.text.equals("(") && isCallee(i > 0 ? tokens.get(i - 1) : null)) {
+                    mutating = true;
+                }
+                continue;
+            }
+            if (token.type != TokenType.IDENTIFIER || previous.equals(".")) {
+                continue;
+            }
+            final String name = token.text;
+            if (name.equals("this")) {
+                // this can be stored, passed to functions or returned from them, so any use of it can write globals.
+                dynamic = true;
+                continue;
+            }
+            if (name.equals("with") || name.equals("delete")) {
+                dynamic |= name.equals("with");
+                mutating = true;
+                continue;
+            }
+            if (KEYWORDS.contains(name)) {
+                continue;
+            }
+            if (next.equals(":") && (previous.equals("{") || previous.equals(","))) {
+                // An object literal key.
+                continue;
+            }
+            if (DYNAMIC_NAMES.contains(name)) {
+                dynamic = true;
+            }
+            reads.add(name);
+            if (isDeclaration(previous) || ASSIGNMENT_OPERATORS.contains(next) || next.equals("++")
+                    || next.equals("--") || previous.equals("++") || previous.equals("--")
+                    || patterns[i] || isLoopVariable(tokens, i)) {
+                writes.add(name);
+            }
+            if (name.equals("require") && next.equals("(") && i + 3 < tokens.size()
+                    && tokens.get(i + 2).type == TokenType.STRING && tokens.get(i + 3).text.equals(")")) {
+                requires.add(tokens.get(i + 2).text);
+            }
+        }
+        return new Analysis(new ArrayList<>(requires), new ArrayList<>(reads),
+                dynamic ? null : new ArrayList<>(writes), !dynamic && !mutating && writes.isEmpty());
+    }
+
+    private static boolean isDeclaration(final String previous) {
+        return previous.equals("var") || previous.equals("let") || previous.equals("const")
+                || previous.equals("function") || previous.equals("class");
+    }
+
+    /**
+     * Check if an identifier is the variable of a for-in, for-of or Nashorn for each loop.
+     */
+    private static boolean isLoopVariable(final List<Token> tokens, final int index) {
+        if (index + 1 >= tokens.size()) {
+            return false;
+        }
+        final String next = tokens.get(index + 1).text;
+        if (!next.equals("in") && !next.equals("of")) {
+            return false;
+        }
+        int open = index - 1;
+        if (open >= 0 && isDeclaration(tokens.get(open).text)) {
+            open--;
+        }
+        return open >= 1 && tokens.get(open).text.equals("(")
+                && (tokens.get(open - 1).text.equals("for") || tokens.get(open - 1).text.equals("each"));
+    }
+
+    /**
+     * Find the identifiers in destructuring patterns, i.e. brackets or braces that are assigned to, or that are the
+     * variable of a loop. Brackets after a value, as in a[i] = 1, are member accesses rather than patterns.
+     * @return For each token, whether it is inside a pattern.
+     */
+    private static boolean[] findPatterns(final List<Token> tokens) {
+        final boolean[] patterns = new boolean[tokens.size()];
+        for (int close = 0; close + 1 < tokens.size(); close++) {
+            final String text = tokens.get(close).text;
+            final String next = tokens.get(close + 1).text;
+            if (tokens.get(close).type != TokenType.PUNCTUATOR || !text.equals("]") && !text.equals("}")
+                    || !next.equals("=") && !next.equals("in") && !next.equals("of")) {
+                continue;
+            }
+            final String opening = text.equals("]") ? "[" : "{";
+            int depth = 0;
+            int open = close;
+            for (; open >= 0; open--) {
+                final Token token = tokens.get(open);
+                if (token.type == TokenType.PUNCTUATOR && token.text.equals(text)) {
+                    depth++;
+                } else if (token.type == TokenType.PUNCTUATOR && token.text.equals(opening) && --depth == 0) {
+                    break;
+                }
+            }
+            if (open < 0 || opening.equals("[") && open > 0 && isValue(tokens.get(open - 1))) {
+                continue;
+            }
+            for (int i = open + 1; i < close; i++) {
+                patterns[i] = true;
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Check if a token ends a value, so a bracket after it is a member access.
+     */
+    private static boolean isValue(final Token token) {
+        switch (token.type) {
+            case IDENTIFIER:
+                return !KEYWORDS.contains(token.text) || token.text.equals("this");
+            case PUNCTUATOR:
+                return token.text.equals(")") || token.text.equals("]");
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Check if a token followed by an opening parenthesis is a call, rather than e.g. an if statement.
+     */
+    private static boolean isCallee(final Token token) {
+        if (token == null) {
+            return false;
+        }
+        if (token.type == TokenType.IDENTIFIER) {
+            return !KEYWORDS.contains(token.text);
+        }
+        return token.text.equals(")") || token.text.equals("]");
+    }
+
+    private enum TokenType {
+        IDENTIFIER, STRING, NUMBER, REGEX, PUNCTUATOR
+    }
+
+    private static final class Token {
+
+        private final TokenType type;
+
+        /**
+         * The text of the token, or the value of a string.
+         */
+        private final String text;
+
+        Token(final TokenType type, final String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Split a script into tokens, dropping comments and whitespace.
+     */
+    private static List<Token> tokenize(final String source) {
+        final List<Token> tokens = new ArrayList<>();
+        final int length = source.length();
+        int i = 0;
+        while (i < length) {
+            final char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (source.startsWith("//", i)) {
+                final int end = source.indexOf('\n', i);
+                i = end < 0 ? length : end;
+            } else if (source.startsWith("/*", i)) {
+                final int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(source.charAt(end))) {
+                    end++;
+                }
+                tokens.add(new Token(TokenType.IDENTIFIER, source.substring(i, end)));
+                i = end;
+            } else if (Character.isDigit(c) || c == '.' && i + 1 < length && Character.isDigit(source.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < length && (Character.isLetterOrDigit(source.charAt(end)) || source.charAt(end) == '.')) {
+                    end++;
+                }
+                tokens.add(new Token(TokenType.NUMBER, source.substring(i, end)));
+                i = end;
+            } else if (c == '`') {
+                i = tokenizeTemplate(source, i, tokens);
+            } else if (c == '"' || c == '\'') {
+                final StringBuilder value = new StringBuilder();
+                int end = i + 1;
+                while (end < length && source.charAt(end) != c) {
+                    if (source.charAt(end) == '\\' && end + 1 < length) {
+                        end++;
+                    }
+                    value.append(source.charAt(end));
+                    end++;
+                }
+                tokens.add(new Token(TokenType.STRING, value.toString()));
+                i = end + 1;
+            } else if (c == '/' && isRegexAllowed(tokens)) {
+                int end = i + 1;
+                boolean inClass = false;
+                while (end < length && (source.charAt(end) != '/' || inClass) && source.charAt(end) != '\n') {
+                    if (source.charAt(end) == '\\') {
+                        end++;
+                    } else if (source.charAt(end) == '[') {
+                        inClass = true;
+                    } else if (source.charAt(end) == ']') {
+                        inClass = false;
+                    }
+                    end++;
+                }
+                end++;
+                while (end < length && Character.isJavaIdentifierPart(source.charAt(end))) {
+                    end++;
+                }
+                tokens.add(new Token(TokenType.REGEX, source.substring(i, Math.min(end, length))));
+                i = end;
+            } else {
+                String punctuator = String.valueOf(c);
+                for (String candidate : PUNCTUATORS) {
+                    if (source.startsWith(candidate, i)) {
+                        punctuator = candidate;
+                        break;
+                    }
+                }
+                tokens.add(new Token(TokenType.PUNCTUATOR, punctuator));
+                i += punctuator.length();
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Add the tokens of a template literal: the template as a string, followed by the tokens of each of its
+     * substitutions in parentheses, so the names they use are analyzed like any others.
+     * @param start The index of the opening backtick.
+     * @return The index after the closing backtick.
+     */
+    private static int tokenizeTemplate(final String source, final int start, final List<Token> tokens) {
+        final int length = source.length();
+        final StringBuilder value = new StringBuilder();
+        final List<Token> substitutions = new ArrayList<>();
+        int i = start + 1;
+        while (i < length && source.charAt(i) != '`') {
+            if (source.charAt(i) == '\\' && i + 1 < length) {
+                value.append(source.charAt(i + 1));
+                i += 2;
+            } else if (source.startsWith("${", i)) {
+                final int end = skipSubstitution(source, i + 2);
+                substitutions.add(new Token(TokenType.PUNCTUATOR, "("));
+                substitutions.addAll(tokenize(source.substring(i + 2, Math.min(end, length))));
+                substitutions.add(new Token(TokenType.PUNCTUATOR, ")"));
+                i = end + 1;
+            } else {
+                value.append(source.charAt(i));
+                i++;
+            }
+        }
+        tokens.add(new Token(TokenType.STRING, value.toString()));
+        tokens.addAll(substitutions);
+        return i + 1;
+    }
+
+    /**
+     * Find the end of a template substitution, skipping strings and nested templates.
+     * @param start The index after the opening ${.
+     * @return The index of the closing brace.
+     */
+    private static int skipSubstitution(final String source, final int start) {
+        final int length = source.length();
+        int depth = 1;
+        int i = start;
+        while (i < length) {
+            final char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                i++;
+                while (i < length && source.charAt(i) != c) {
+                    i += source.charAt(i) == '\\' ? 2 : 1;
+                }
+            } else if (c == '`') {
+                i = tokenizeTemplate(source, i, new ArrayList<>()) - 1;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return length;
+    }
+
+    /**
+     * Check if a slash starts a regular expression rather than a division, from the token before it.
+     */
+    private static boolean isRegexAllowed(final List<Token> tokens) {
+        if (tokens.isEmpty()) {
+            return true;
+        }
+        final Token previous = tokens.get(tokens.size() - 1);
+        switch (previous.type) {
+            case IDENTIFIER:
+                return REGEX_PREFIX_KEYWORDS.contains(previous.text);
+            case PUNCTUATOR:
+                return !previous.text.equals(")") && !previous.text.equals("]") && !previous.text.equals("}")
+                        && !previous.text.equals("++") && !previous.text.equals("--");
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * What a script does to its context.
+     */
+    static final class Analysis {
+
+        private final List<String> requires;
+
+        private final List<String> reads;
+
+        private final List<String> writes;
+
+        private final boolean pure;
+
+        Analysis(final List<String> requires, final List<String> reads, final List<String> writes, final boolean pure) {
+            this.requires = Collections.unmodifiableList(requires);
+            this.reads = Collections.unmodifiableList(reads);
+            this.writes = writes != null ? Collections.unmodifiableList(writes) : null;
+            this.pure = pure;
+        }
+
+        void applyTo(final LifecycleScript script) {
+            script.setRequires(new ArrayList<>(requires));
+            script.setReads(new ArrayList<>(reads));
+            script.setWrites(writes != null ? new ArrayList<>(writes) : null);
+            script.setDynamic(writes == null);
+            script.setPure(pure);
+        }
+
+        /**
+         * @return The ids of the scripts the script requires.
+         */
+        List<String> getRequires() {
+            return requires;
+        }
+
+        /**
+         * @return The names the script reads, which include the context keys it uses.
+         */
+        List<String> getReads() {
+            return reads;
+        }
+
+        /**
+         * @return The names the script may assign, or null if the script can assign names that can't be known.
+         */
+        List<String> getWrites() {
+            return writes;
+        }
+
+        /**
+         * @return true if the script doesn't assign anything or call any functions, so it can't change its context.
+         */
+        boolean isPure() {
+            return pure;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.atex.onecms.scripting;
+
+/**
+ * Thrown when a script is aborted for exceeding its time budget. Like any other script error, none of the changes
+ * made to the context by the scripts being run are returned to the caller.
+ */
+public class ScriptBudgetException extends ScriptEngineException {
+
+    /**
+     * The budget a script exceeded.
+     */
+    public enum Budget {
+        /**
+         * The wall-clock time a single script may run for.
+         */
+        TIMEOUT,
+        /**
+         * The CPU time a single script may use.
+         */
+        CPU_TIME,
+        /**
+         * The wall-clock time all the scripts run by a trigger may run for.
+         */
+        TRIGGER_TIMEOUT
+    }
+
+    private final String scriptId;
+
+    private final Budget budget;
+
+    private final long limitMillis;
+
+    public ScriptBudgetException(final String scriptId, final Budget budget, final long limitMillis) {
+        super("Script " + scriptId + " exceeded its " + budget + " budget of " + limitMillis + "ms");
+        this.scriptId = scriptId;
+        this.budget = budget;
+        this.limitMillis = limitMillis;
+    }
+
+    /**
+     * @return The ID of the script that was aborted.
+     */
+    public String getScriptId() {
+        return scriptId;
+    }
+
+    /**
+     * @return The budget the script exceeded.
+     */
+    public Budget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return The limit of the budget that was exceeded, in milliseconds.
+     */
+    public long getLimitMillis() {
+        return limitMillis;
+    }
+}
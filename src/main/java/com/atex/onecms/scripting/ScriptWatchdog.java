@@ -0,0 +1,300 @@
+package com.atex.onecms.scripting;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.atex.onecms.content.ContentVersionId;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The ScriptWatchdog runs scripts that have a time budget. The script runs on a worker thread, using the engine the
+ * caller checked out, while the caller waits for it and checks its wall-clock and CPU time. When a budget runs out
+ * the caller stops waiting straight away and throws a {@link ScriptBudgetException}, so the time a trigger can take
+ * is bounded whatever the script does.
+ * The aborted script is interrupted, which ends blocking calls such as sleeps and most I/O. A script still running
+ * after a grace period, e.g. one busy in an infinite loop, is cancelled by its runtime where the backend supports it,
+ * as GraalJS does. Nashorn can't cancel a script that is busy in JavaScript, so its worker thread runs until the
+ * script completes. Either way the engine the script was running on is abandoned, and the pool creates a new one in
+ * its place, so the aborted script can't affect other scripts.
+ * While an aborted run of a script version is still running, that version is quarantined: running it again fails
+ * straight away rather than starting another run that can't be stopped. The number of aborted runs still running is
+ * bounded too, and once it is reached scripts with a budget fail straight away, so threads and engines left behind
+ * by scripts that never complete can't grow without bound.
+ */
+final class ScriptWatchdog {
+
+    private static final Logger LOGGER = Logger.getLogger(ScriptWatchdog.class.getName());
+
+    /**
+     * How often the CPU time of a script with a CPU budget is checked.
+     */
+    private static final long CPU_POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * How long an aborted script has to respond to being interrupted before it is cancelled by its runtime.
+     */
+    private static final long STOP_GRACE_PERIOD_MILLIS = 1000;
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private final ThreadPoolExecutor workers;
+
+    private final ScheduledExecutorService stopper;
+
+    private final int maxAbandonedScripts;
+
+    /**
+     * The number of aborted runs still running, by script version.
+     */
+    private final Map<String, Integer> quarantined = new ConcurrentHashMap<>();
+
+    private final AtomicInteger abandonedCount = new AtomicInteger();
+
+    /**
+     * Create a new ScriptWatchdog.
+     * @param stopper The executor to schedule cancelling scripts that don't respond to interrupts on.
+     * @param enginePoolSize The number of engines scripts can run on at the same time.
+     * @param maxAbandonedScripts The most aborted runs that may still be running before scripts fail straight away.
+     */
+    ScriptWatchdog(final ScheduledExecutorService stopper, final int enginePoolSize, final int maxAbandonedScripts) {
+        this.stopper = stopper;
+        this.maxAbandonedScripts = maxAbandonedScripts;
+        // A script that is running holds an engine, so only the aborted runs need workers beyond the pool size.
+        workers = new ThreadPoolExecutor(0, enginePoolSize + maxAbandonedScripts,
+                60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lifecycle-script-budgeted-%d")
+                        .setDaemon(true)
+                        .build());
+        if (threadMXBean.isThreadCpuTimeSupported() && !threadMXBean.isThreadCpuTimeEnabled()) {
+            threadMXBean.setThreadCpuTimeEnabled(true);
+        }
+    }
+
+    /**
+     * A script execution to run within a budget.
+     */
+    interface Execution {
+        ContextMap run() throws ScriptEngineException;
+    }
+
+    /**
+     * Run a script within its budget.
+     * @param enginePool The pool the engine was checked out of.
+     * @param pooledEngine The engine the caller checked out for the script.
+     * @param scriptId The ID of the script, for errors.
+     * @param versionId The version of the script, which is quarantined if it is aborted and keeps running.
+     * @param execution The script execution.
+     * @param timeoutNanos The wall-clock time the script may run for, Long.MAX_VALUE for no limit.
+     * @param timeoutBudget The budget the wall-clock limit comes from.
+     * @param timeoutMillis The limit of the budget the wall-clock limit comes from, for errors.
+     * @param cpuTimeMillis The CPU time the script may use, 0 for no limit.
+     * @return The result of the execution.
+     * @throws ScriptBudgetException If the script exceeds its budget.
+     * @throws ScriptEngineException If the script fails, is quarantined, or too many aborted scripts are running.
+     */
+    ContextMap run(final EnginePool enginePool,
+                   final PooledEngine pooledEngine,
+                   final String scriptId,
+                   final ContentVersionId versionId,
+                   final Execution execution,
+                   final long timeoutNanos,
+                   final ScriptBudgetException.Budget timeoutBudget,
+                   final long timeoutMillis,
+                   final long cpuTimeMillis) throws ScriptEngineException {
+        if (timeoutNanos <= 0) {
+            throw new ScriptBudgetException(scriptId, timeoutBudget, timeoutMillis);
+        }
+        final String scriptKey = scriptId + "@" + versionId;
+        if (quarantined.containsKey(scriptKey)) {
+            throw new ScriptEngineException("Script " + scriptId + " is quarantined until an aborted run of it "
+                    + "completes");
+        }
+        if (abandonedCount.get() >= maxAbandonedScripts) {
+            throw new ScriptEngineException("Cannot run script " + scriptId + ", " + abandonedCount.get()
+                    + " aborted scripts are still running");
+        }
+        final long cpuTimeNanos = TimeUnit.MILLISECONDS.toNanos(cpuTimeMillis);
+        final BudgetedTask task = new BudgetedTask(enginePool, pooledEngine, scriptKey, execution, cpuTimeMillis > 0);
+        final long start = System.nanoTime();
+        final Future<ContextMap> future;
+        try {
+            future = workers.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new ScriptEngineException("Cannot run script " + scriptId + ", no budgeted worker is available", e);
+        }
+        try {
+            while (true) {
+                final long remaining = timeoutNanos - (System.nanoTime() - start);
+                if (remaining <= 0) {
+                    throw abort(enginePool, pooledEngine, future, task,
+                            new ScriptBudgetException(scriptId, timeoutBudget, timeoutMillis));
+                }
+                try {
+                    return future.get(cpuTimeMillis > 0 ? Math.min(remaining, CPU_POLL_INTERVAL_NANOS) : remaining,
+                            TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (cpuTimeMillis > 0 && task.getCpuTime() > cpuTimeNanos) {
+                        throw abort(enginePool, pooledEngine, future, task,
+                                new ScriptBudgetException(scriptId, ScriptBudgetException.Budget.CPU_TIME, cpuTimeMillis));
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ScriptEngineException) {
+                throw (ScriptEngineException) e.getCause();
+            }
+            throw new ScriptEngineException("Error running script: " + scriptId, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abort(enginePool, pooledEngine, future, task,
+                    new ScriptEngineException("Interrupted running script: " + scriptId, e));
+        }
+    }
+
+    private ScriptEngineException abort(final EnginePool enginePool,
+                                        final PooledEngine pooledEngine,
+                                        final Future<ContextMap> future,
+                                        final BudgetedTask task,
+                                        final ScriptEngineException error) {
+        enginePool.abandon(pooledEngine);
+        task.abandon();
+        future.cancel(true);
+        try {
+            stopper.schedule(task::cancel, STOP_GRACE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The engine is closing, so there is no grace period.
+            task.cancel();
+        }
+        return error;
+    }
+
+    /**
+     * @return The number of aborted runs of scripts that are still running.
+     */
+    int getAbandonedCount() {
+        return abandonedCount.get();
+    }
+
+    /**
+     * Stop accepting scripts, interrupting the scripts that are running.
+     */
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Runs an execution on a worker thread, with the caller's engine checked out to the worker.
+     */
+    private final class BudgetedTask implements Callable<ContextMap> {
+
+        private final EnginePool enginePool;
+
+        private final PooledEngine pooledEngine;
+
+        private final String scriptKey;
+
+        private final Execution execution;
+
+        private final boolean measureCpuTime;
+
+        private Thread thread;
+
+        private long startCpuTime;
+
+        private boolean done;
+
+        private boolean abandoned;
+
+        BudgetedTask(final EnginePool enginePool,
+                     final PooledEngine pooledEngine,
+                     final String scriptKey,
+                     final Execution execution,
+                     final boolean measureCpuTime) {
+            this.enginePool = enginePool;
+            this.pooledEngine = pooledEngine;
+            this.scriptKey = scriptKey;
+            this.execution = execution;
+            this.measureCpuTime = measureCpuTime;
+        }
+
+        @Override
+        public ContextMap call() throws ScriptEngineException {
+            synchronized (this) {
+                if (done) {
+                    return null;
+                }
+                thread = Thread.currentThread();
+                startCpuTime = measureCpuTime ? threadMXBean.getCurrentThreadCpuTime() : 0;
+            }
+            enginePool.adopt(pooledEngine);
+            try {
+                return execution.run();
+            } finally {
+                enginePool.disown(pooledEngine);
+                synchronized (this) {
+                    done = true;
+                    if (abandoned) {
+                        release();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Count the execution as an aborted run, and quarantine its script version, until it completes. An execution
+         * that hasn't started yet is marked done, so it won't start.
+         */
+        synchronized void abandon() {
+            if (thread == null) {
+                done = true;
+            } else if (!done && !abandoned) {
+                abandoned = true;
+                abandonedCount.incrementAndGet();
+                quarantined.merge(scriptKey, 1, Integer::sum);
+            }
+        }
+
+        private void release() {
+            // The quarantine is lifted first, so a script isn't still quarantined once the count reaches zero.
+            quarantined.computeIfPresent(scriptKey, (key, count) -> count > 1 ? count - 1 : null);
+            abandonedCount.decrementAndGet();
+        }
+
+        /**
+         * @return The CPU time the execution has used so far in nanoseconds.
+         */
+        synchronized long getCpuTime() {
+            if (thread == null || done) {
+                return 0;
+            }
+            return threadMXBean.getThreadCpuTime(thread.getId()) - startCpuTime;
+        }
+
+        /**
+         * Cancel the execution on its runtime if the worker thread is still running it.
+         */
+        synchronized void cancel() {
+            if (thread != null && !done) {
+                LOGGER.log(Level.WARNING, "Cancelling script that didn't respond to being interrupted on "
+                        + thread.getName() + ", it runs until the script completes if its backend can't cancel it");
+                pooledEngine.cancel();
+            }
+        }
+    }
+}
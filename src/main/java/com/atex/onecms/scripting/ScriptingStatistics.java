@@ -0,0 +1,177 @@
+package com.atex.onecms.scripting;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.cache.Cache;
+
+/**
+ * Collects statistics of script executions for the {@link ScriptingStatisticsMXBean}. Counters are updated without
+ * locking or allocating, apart from the first execution of each script.
+ */
+final class ScriptingStatistics implements ScriptingStatisticsMXBean {
+
+    private static final Logger LOGGER = Logger.getLogger(ScriptingStatistics.class.getName());
+
+    static final String OBJECT_NAME = "com.atex.onecms.scripting:type=LifecycleScriptingEngine";
+
+    /**
+     * The statistics registered with the MBean server, the most recently created engine's.
+     */
+    private static ScriptingStatistics registered;
+
+    private final Map<String, ExecutionStats> scripts = new ConcurrentHashMap<>();
+
+    private volatile Map<ScriptType, ExecutionStats> scriptTypes = newScriptTypeStats();
+
+    private final Cache<?, ?> scriptCache;
+
+    private final Cache<?, ?> scriptListCache;
+
+    private final ExternalIdResolver externalIdResolver;
+
+    private final DetachedScriptExecutor detachedScriptExecutor;
+
+    private final ScriptWatchdog watchdog;
+
+    ScriptingStatistics(final Cache<?, ?> scriptCache,
+                        final Cache<?, ?> scriptListCache,
+                        final ExternalIdResolver externalIdResolver,
+                        final DetachedScriptExecutor detachedScriptExecutor,
+                        final ScriptWatchdog watchdog) {
+        this.scriptCache = scriptCache;
+        this.scriptListCache = scriptListCache;
+        this.externalIdResolver = externalIdResolver;
+        this.detachedScriptExecutor = detachedScriptExecutor;
+        this.watchdog = watchdog;
+    }
+
+    private static Map<ScriptType, ExecutionStats> newScriptTypeStats() {
+        Map<ScriptType, ExecutionStats> stats = new EnumMap<>(ScriptType.class);
+        for (ScriptType scriptType : ScriptType.values()) {
+            stats.put(scriptType, new ExecutionStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Register with the platform MBean server. Failures are only logged, as statistics are not essential.
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            synchronized (ScriptingStatistics.class) {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+                registered = this;
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot register scripting statistics MBean", e);
+        }
+    }
+
+    /**
+     * Unregister from the platform MBean server, if these statistics are the ones registered.
+     */
+    void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            synchronized (ScriptingStatistics.class) {
+                if (registered == this) {
+                    registered = null;
+                    if (server.isRegistered(name)) {
+                        server.unregisterMBean(name);
+                    }
+                }
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Cannot unregister scripting statistics MBean", e);
+        }
+    }
+
+    /**
+     * Record an execution of a script.
+     * @param scriptId The ID of the script.
+     * @param scriptType The event the script runs during, or null if it has no valid event.
+     * @param nanos The time the execution took in nanoseconds.
+     * @param failed true if the execution failed.
+     */
+    void record(final String scriptId, final ScriptType scriptType, final long nanos, final boolean failed) {
+        ExecutionStats stats = scripts.get(scriptId);
+        if (stats == null) {
+            stats = scripts.computeIfAbsent(scriptId, id -> new ExecutionStats());
+        }
+        stats.record(nanos, failed);
+        if (scriptType != null) {
+            scriptTypes.get(scriptType).record(nanos, failed);
+        }
+    }
+
+    @Override
+    public Map<String, ExecutionStatistics> getScriptStatistics() {
+        Map<String, ExecutionStatistics> statistics = new TreeMap<>();
+        scripts.forEach((id, stats) -> statistics.put(id, stats.snapshot()));
+        return statistics;
+    }
+
+    @Override
+    public Map<String, ExecutionStatistics> getScriptTypeStatistics() {
+        Map<String, ExecutionStatistics> statistics = new TreeMap<>();
+        scriptTypes.forEach((scriptType, stats) -> statistics.put(scriptType.name(), stats.snapshot()));
+        return statistics;
+    }
+
+    @Override
+    public CacheStatistics getScriptCacheStatistics() {
+        return CacheStatistics.of(scriptCache.stats());
+    }
+
+    @Override
+    public CacheStatistics getScriptListCacheStatistics() {
+        return CacheStatistics.of(scriptListCache.stats());
+    }
+
+    @Override
+    public CacheStatistics getResolveCacheStatistics() {
+        return externalIdResolver.getStatistics();
+    }
+
+    @Override
+    public int getDetachedQueueSize() {
+        return detachedScriptExecutor.getQueueSize();
+    }
+
+    @Override
+    public int getDetachedActiveCount() {
+        return detachedScriptExecutor.getActiveCount();
+    }
+
+    @Override
+    public long getDetachedRejectedCount() {
+        return detachedScriptExecutor.getRejectedCount();
+    }
+
+    @Override
+    public int getAbandonedScriptCount() {
+        return watchdog.getAbandonedCount();
+    }
+
+    @Override
+    public void resetStatistics() {
+        scripts.clear();
+        scriptTypes = newScriptTypeStats();
+    }
+}
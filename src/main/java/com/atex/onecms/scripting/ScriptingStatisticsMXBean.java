@@ -0,0 +1,54 @@
+package com.atex.onecms.scripting;
+
+import java.util.Map;
+
+/**
+ * Statistics of the {@link LifecycleScriptingEngine}, registered with the platform MBean server as
+ * <code>com.atex.onecms.scripting:type=LifecycleScriptingEngine</code>.
+ */
+public interface ScriptingStatisticsMXBean {
+
+    /**
+     * @return Statistics of the executions of each script, by script ID.
+     */
+    Map<String, ExecutionStatistics> getScriptStatistics();
+
+    /**
+     * @return Statistics of the executions of the scripts for each event, by ScriptType.
+     */
+    Map<String, ExecutionStatistics> getScriptTypeStatistics();
+
+    CacheStatistics getScriptCacheStatistics();
+
+    CacheStatistics getScriptListCacheStatistics();
+
+    /**
+     * @return Statistics of the cache of external ids resolved by scripts.
+     */
+    CacheStatistics getResolveCacheStatistics();
+
+    /**
+     * @return The number of detached scripts waiting for a worker.
+     */
+    int getDetachedQueueSize();
+
+    /**
+     * @return The number of workers running a detached script.
+     */
+    int getDetachedActiveCount();
+
+    /**
+     * @return The number of detached scripts that found the queue full.
+     */
+    long getDetachedRejectedCount();
+
+    /**
+     * @return The number of scripts aborted for exceeding their budget that are still running.
+     */
+    int getAbandonedScriptCount();
+
+    /**
+     * Clear the execution statistics of scripts and events.
+     */
+    void resetStatistics();
+}
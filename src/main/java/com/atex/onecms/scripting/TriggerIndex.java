@@ -0,0 +1,154 @@
+package com.atex.onecms.scripting;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import com.polopoly.cm.ExternalContentId;
+
+/**
+ * A TriggerIndex is an immutable snapshot of the scripts in a ScriptList, grouped by the event they run during. It is
+ * built once per version of the ScriptList and its scripts, so a trigger only has to look at the scripts that match
+ * its event and content type, instead of fetching and matching every script in the list.
+ * The scripts matching a content type are memoized, so the content type pattern is only compiled and matched once.
+ * An index records the scripts that failed to load, so the engine can retry them rather than leaving them out until
+ * the ScriptList changes.
+ */
+final class TriggerIndex {
+
+    /**
+     * Upper bound on the number of content types memoized per event, so callers passing arbitrary content types
+     * can't grow the index without limit.
+     */
+    private static final int MAX_MEMOIZED_CONTENT_TYPES = 256;
+
+    private static final CompilableScript[] NO_SCRIPTS = new CompilableScript[0];
+
+    /**
+     * The external ids of the ScriptList this index was built from, in order.
+     */
+    private final String[] scriptIds;
+
+    /**
+     * The external ids of the scripts in the ScriptList that could not be loaded, and are left out of the index.
+     */
+    private final String[] failedIds;
+
+    /**
+     * The generation of the engines script cache the index was built from.
+     */
+    private final long generation;
+
+    private final Map<ScriptType, CompilableScript[]> scriptsByEvent = new EnumMap<>(ScriptType.class);
+
+    private final Map<ScriptType, Map<String, CompilableScript[]>> matchesByEvent = new EnumMap<>(ScriptType.class);
+
+    /**
+     * Create a new TriggerIndex.
+     * @param scriptIds The external ids of the scripts in the ScriptList, in order.
+     * @param scripts The scripts that were loaded from the ScriptList, in ScriptList order.
+     * @param failedIds The external ids of the scripts that could not be loaded.
+     * @param generation The generation of the script cache the scripts were loaded from.
+     */
+    TriggerIndex(final String[] scriptIds,
+                 final List<CompilableScript> scripts,
+                 final String[] failedIds,
+                 final long generation) {
+        this.scriptIds = scriptIds;
+        this.failedIds = failedIds;
+        this.generation = generation;
+        for (ScriptType scriptType : ScriptType.values()) {
+            List<CompilableScript> eventScripts = new ArrayList<>();
+            for (CompilableScript script : scripts) {
+                if (script.getScriptType() == scriptType) {
+                    eventScripts.add(script);
+                }
+            }
+            scriptsByEvent.put(scriptType, eventScripts.toArray(NO_SCRIPTS));
+            matchesByEvent.put(scriptType, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Get the ids of the scripts in a ScriptList.
+     * @param scriptList The ScriptList.
+     * @return The external ids of the scripts in the list, in order.
+     */
+    static String[] getScriptIds(final ScriptList scriptList) {
+        List<ExternalContentId> scripts = scriptList.getScripts();
+        if (scripts == null) {
+            return new String[0];
+        }
+        String[] ids = new String[scripts.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = scripts.get(i).getExternalId();
+        }
+        return ids;
+    }
+
+    /**
+     * Check if this index still represents a ScriptList.
+     * @param scriptList The current ScriptList.
+     * @param currentGeneration The current generation of the script cache.
+     * @return true if the index was built from the same scripts, and none of them have changed since.
+     */
+    boolean isCurrent(final ScriptList scriptList, final long currentGeneration) {
+        if (generation != currentGeneration) {
+            return false;
+        }
+        List<ExternalContentId> scripts = scriptList.getScripts();
+        int size = scripts == null ? 0 : scripts.size();
+        if (size != scriptIds.length) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!scriptIds[i].equals(scripts.get(i).getExternalId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The external ids of the scripts in the ScriptList that could not be loaded, empty if all were loaded.
+     */
+    String[] getFailedIds() {
+        return failedIds;
+    }
+
+    /**
+     * Get the scripts to run for an event and content type, in ScriptList order.
+     * The returned array is shared and must not be modified.
+     * @param scriptType The event to get scripts for.
+     * @param contentType The content type pattern to match against the scripts content types.
+     * @return The matching scripts.
+     */
+    CompilableScript[] getScripts(final ScriptType scriptType, final String contentType) {
+        Map<String, CompilableScript[]> matches = matchesByEvent.get(scriptType);
+        CompilableScript[] scripts = matches.get(contentType);
+        if (scripts == null) {
+            scripts = match(scriptsByEvent.get(scriptType), contentType);
+            if (matches.size() < MAX_MEMOIZED_CONTENT_TYPES) {
+                matches.put(contentType, scripts);
+            }
+        }
+        return scripts;
+    }
+
+    private static CompilableScript[] match(final CompilableScript[] scripts, final String contentType) {
+        if (scripts.length == 0) {
+            return NO_SCRIPTS;
+        }
+        Pattern pattern = Pattern.compile(contentType);
+        List<CompilableScript> matched = new ArrayList<>(scripts.length);
+        for (CompilableScript script : scripts) {
+            if (script.getContentType() != null && pattern.matcher(script.getContentType()).matches()) {
+                matched.add(script);
+            }
+        }
+        return matched.toArray(NO_SCRIPTS);
+    }
+}
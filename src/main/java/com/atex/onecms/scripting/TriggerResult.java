@@ -0,0 +1,47 @@
+package com.atex.onecms.scripting;
+
+/**
+ * The result of triggering scripts for one context in a batch, see
+ * {@link LifecycleScriptingEngine#triggerBatch(ScriptType, String, java.util.List)}. A result either holds the
+ * updated context, or the error that stopped the scripts, in which case none of their changes are applied.
+ */
+public final class TriggerResult {
+
+    private final ContextMap context;
+
+    private final ScriptEngineException error;
+
+    private TriggerResult(final ContextMap context, final ScriptEngineException error) {
+        this.context = context;
+        this.error = error;
+    }
+
+    static TriggerResult success(final ContextMap context) {
+        return new TriggerResult(context, null);
+    }
+
+    static TriggerResult failure(final ScriptEngineException error) {
+        return new TriggerResult(null, error);
+    }
+
+    /**
+     * @return true if every script ran successfully.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return The context containing the changes made by scripts, or null if a script failed.
+     */
+    public ContextMap getContext() {
+        return context;
+    }
+
+    /**
+     * @return The error that stopped the scripts, or null if they ran successfully.
+     */
+    public ScriptEngineException getError() {
+        return error;
+    }
+}
@@ -0,0 +1,55 @@
+package com.atex.onecms.scripting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * TriggerWaves splits the scripts run by a trigger into waves of scripts that can run at the same time. Waves keep
+ * the order of the scripts: a script joins the wave before it unless it reads or writes a context key that a script
+ * already in the wave writes, in which case it must see that script's changes and starts a new wave. A script whose
+ * writes can't be known always runs in a wave of its own.
+ */
+final class TriggerWaves {
+
+    private TriggerWaves() {
+    }
+
+    /**
+     * Split scripts into waves.
+     * @param scripts The scripts to run, in order.
+     * @param maxWidth The most scripts a wave may have.
+     * @return The waves, in the order they should run.
+     */
+    static List<CompilableScript[]> split(final CompilableScript[] scripts, final int maxWidth) {
+        final List<CompilableScript[]> waves = new ArrayList<>();
+        final List<CompilableScript> wave = new ArrayList<>();
+        final Set<String> waveWrites = new HashSet<>();
+        for (CompilableScript script : scripts) {
+            final Set<String> writes = script.getWriteKeys();
+            if (writes == null || wave.size() >= maxWidth
+                    || !Collections.disjoint(script.getReadKeys(), waveWrites)
+                    || !Collections.disjoint(writes, waveWrites)) {
+                flush(wave, waves);
+                waveWrites.clear();
+            }
+            wave.add(script);
+            if (writes == null) {
+                flush(wave, waves);
+            } else {
+                waveWrites.addAll(writes);
+            }
+        }
+        flush(wave, waves);
+        return waves;
+    }
+
+    private static void flush(final List<CompilableScript> wave, final List<CompilableScript[]> waves) {
+        if (!wave.isEmpty()) {
+            waves.add(wave.toArray(new CompilableScript[0]));
+            wave.clear();
+        }
+    }
+}
@@ -2,10 +2,11 @@ package com.atex.onecms.scripting.api;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.function.Predicate;
 
 import com.atex.onecms.scripting.ImmutableException;
+import com.rits.cloning.Immutable;
 import jdk.nashorn.api.scripting.AbstractJSObject;
+import jdk.nashorn.api.scripting.JSObject;
 
 /**
  * BaseJSObject is a wrapper class that can be used to make Nashorn treat any wrapped class as a script object. This class subclasses
@@ -15,10 +16,24 @@ import jdk.nashorn.api.scripting.AbstractJSObject;
  * <code>obj.property</code>.
  * Subclasses of this class can be made immutable, ie assignment of properties or calls to <code>delete obj.property</code> will throw
  * an {@link com.atex.onecms.scripting.ImmutableException}
+ * Built-in functions are shared by every instance and act on the object they are called on, so creating an object
+ * or accessing its members in a script doesn't allocate functions.
  * @param <T> The Type to be wrapped.
  */
 public abstract class BaseJSObject<T> extends AbstractJSObject {
 
+    private static final AbstractJSObject TO_STRING = new ToStringFunction();
+
+    private static final AbstractJSObject VALUE_OF = new ValueOfFunction();
+
+    private static final AbstractJSObject HAS_OWN_PROPERTY = new HasOwnPropertyFunction();
+
+    /**
+     * The initial capacity of the properties map, enough for the built-in functions and the few properties
+     * subclasses add without resizing.
+     */
+    private static final int PROPERTIES_CAPACITY = 8;
+
     /**
      * The object that this JSObject wraps. E.g. a ContentWrite or ContentResult.
      */
@@ -27,7 +42,7 @@ public abstract class BaseJSObject<T> extends AbstractJSObject {
     /**
      *  A list of properties available to scripts.
      */
-    protected final Map<String, Object> properties = new HashMap<>();
+    protected final Map<String, Object> properties = new HashMap<>(PROPERTIES_CAPACITY);
 
     /**
      * Determine if the object should be immutable in script code.
@@ -42,8 +57,8 @@ public abstract class BaseJSObject<T> extends AbstractJSObject {
     public BaseJSObject(final T baseObject, final boolean immutable) {
         this.baseObject = baseObject;
         this.immutable = immutable;
-        properties.put("toString", jsToString());
-        properties.put("valueOf", jsValueOf());
+        properties.put("toString", TO_STRING);
+        properties.put("valueOf", VALUE_OF);
     }
 
     /**
@@ -80,58 +95,72 @@ public abstract class BaseJSObject<T> extends AbstractJSObject {
     @Override
     public Object getMember(final String name) {
         if ("hasOwnProperty".equals(name)) {
-            return (Predicate<String>) properties::containsKey;
+            return HAS_OWN_PROPERTY;
         }
-        if (properties.containsKey(name)) {
-            return properties.get(name);
+        final Object value = properties.get(name);
+        if (value != null || properties.containsKey(name)) {
+            return value;
         }
         return super.getMember(name);
     }
 
+    /**
+     * Called by the Nashorn engine for <code>'propertyName' in obj</code>, and by hasOwnProperty.
+     * @param name The name of the property.
+     * @return true if the object has the property.
+     */
+    @Override
+    public boolean hasMember(final String name) {
+        return properties.containsKey(name);
+    }
+
     @Override
     public String getClassName() {
         return this.getClass().getSimpleName();
     }
 
+    public T getBaseObject() {
+        return baseObject;
+    }
+
     /**
-     * Get a AbstractJSObject that represents the toString function on the
-     * ContentFacade object.
-     * @return The callable AbstractJSObject.
+     * A function shared by every BaseJSObject. Functions are immutable, so copies of an object share them too.
      */
-    private AbstractJSObject jsToString() {
-        return new AbstractJSObject() {
-            @Override
-            public Object call(final Object jsObj, final Object... args) {
-                return "[object" + getClassName() + "]";
-            }
-
-            @Override
-            public boolean isFunction() {
-                return true;
-            }
-        };
+    @Immutable(subClass = true)
+    abstract static class SharedFunction extends AbstractJSObject {
+        @Override
+        public boolean isFunction() {
+            return true;
+        }
     }
 
     /**
-     * Get a AbstractJSObject that represents the valueOf function on the
-     * ContentFacade object.
-     * @return The callable AbstractJSObject.
+     * The toString function, which names the class of the object it is called on.
      */
-    private AbstractJSObject jsValueOf() {
-        return new AbstractJSObject() {
-            @Override
-            public Object call(final Object jsObj, final Object... args) {
-                return jsObj;
-            }
-
-            @Override
-            public boolean isFunction() {
-                return true;
-            }
-        };
+    private static final class ToStringFunction extends SharedFunction {
+        @Override
+        public Object call(final Object jsObj, final Object... args) {
+            return "[object" + (jsObj instanceof JSObject ? ((JSObject) jsObj).getClassName() : "") + "]";
+        }
     }
 
-    public T getBaseObject() {
-        return baseObject;
+    /**
+     * The valueOf function, which returns the object it is called on.
+     */
+    private static final class ValueOfFunction extends SharedFunction {
+        @Override
+        public Object call(final Object jsObj, final Object... args) {
+            return jsObj;
+        }
+    }
+
+    /**
+     * The hasOwnProperty function, which checks the properties of the object it is called on.
+     */
+    private static final class HasOwnPropertyFunction extends SharedFunction {
+        @Override
+        public Object call(final Object jsObj, final Object... args) {
+            return jsObj instanceof JSObject && args.length > 0 && ((JSObject) jsObj).hasMember(String.valueOf(args[0]));
+        }
     }
 }
@@ -2,15 +2,11 @@ package com.atex.onecms.scripting.api;
 
 import com.atex.onecms.content.Content;
 import com.atex.onecms.content.ContentResult;
-import com.atex.onecms.content.aspects.Aspect;
-
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * A ContentResultFacade is a wrapper for a ContentResult that restructures and exposes fields for the NashornJS environment.
  * Notably, contentData is moved into the aspects list and can be referenced on an instance as: <code>content.aspects.contentData</code>.
+ * Aspects are looked up when scripts first access them, see {@link LazyAspectMap}.
  */
 public class ContentResultFacade extends BaseJSObject<ContentResult<?>> {
     /**
@@ -38,22 +34,8 @@ public class ContentResultFacade extends BaseJSObject<ContentResult<?>> {
             return;
         }
         this.content = content;
-        properties.put("aspects", buildAspectMap(content.getContent().getAspects(), content.getContent().getContentData()));
-    }
-
-    /**
-     * Build a map of Aspects from content data.
-     * @param aspects The list of aspects to build a map from.
-     * @param contentData The content data to
-     * @return A map of aspects including content data.
-     */
-    private Map<String, Aspect<?>> buildAspectMap(final Collection<Aspect> aspects, final Object contentData) {
-        Map<String, Aspect<?>> aspectMap = new HashMap<>();
-        for (Aspect<?> aspect : aspects) {
-            aspectMap.put(aspect.getName(), aspect);
-        }
-        aspectMap.put("contentData", new Aspect("contentData", contentData));
-        return aspectMap;
+        properties.put("aspects", new LazyAspectMap(LazyAspectMap.typed(content.getContent().getAspects()),
+                content.getContent().getContentData()));
     }
 
     /**
@@ -1,18 +1,17 @@
 package com.atex.onecms.scripting.api;
 
 import com.atex.onecms.content.ContentWrite;
-import com.atex.onecms.content.aspects.Aspect;
 import jdk.nashorn.api.scripting.AbstractJSObject;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A ContentWriteFacade is a wrapper for a ContentWrite that restructures and exposes fields for the NashornJS environment.
  * Notably, contentData is moved into the aspects list and can be referenced on an instance as: <code>content.aspects.contentData</code>.
+ * Aspects are looked up when scripts first access them, see {@link LazyAspectMap}.
  */
 public class ContentWriteFacade extends BaseJSObject<ContentWrite<?>> {
+
+    private static final AbstractJSObject GET_CONTENT_WRITE = new GetContentWriteFunction();
+
     /**
      * Member for storing the current state of the ContentWrite.
      */
@@ -38,36 +37,21 @@ public class ContentWriteFacade extends BaseJSObject<ContentWrite<?>> {
             return;
         }
         this.content = content;
-        properties.put("aspects", buildAspectMap(content.getAspects(), content.getContentData()));
-        properties.put("getContentWrite", jsGetContent());
+        properties.put("aspects", new LazyAspectMap(LazyAspectMap.typed(content.getAspects()), content.getContentData()));
+        properties.put("getContentWrite", GET_CONTENT_WRITE);
     }
 
     /**
-     * Build a map of Aspects from content data.
-     * @param aspects The list of aspects to build a map from.
-     * @param contentData The content data to
-     * @return A map of aspects including content data.
+     * The getContentWrite function, which returns the ContentWrite of the facade it is called on, or of the copy of
+     * it a script is working on.
      */
-    private Map<String, Aspect<?>> buildAspectMap(final Collection<Aspect> aspects, final Object contentData) {
-        Map<String, Aspect<?>> aspectMap = new HashMap<>();
-        for (Aspect<?> aspect : aspects) {
-            aspectMap.put(aspect.getName(), aspect);
-        }
-        aspectMap.put("contentData", new Aspect("contentData", contentData));
-        return aspectMap;
-    }
-
-    private AbstractJSObject jsGetContent() {
-        return new AbstractJSObject() {
-            @Override
-            public Object call(final Object jsObj, final Object... args) {
-                return content;
-            }
-
-            @Override
-            public boolean isFunction() {
-                return true;
+    private static final class GetContentWriteFunction extends SharedFunction {
+        @Override
+        public Object call(final Object jsObj, final Object... args) {
+            if (jsObj instanceof BaseJSObject && ((BaseJSObject<?>) jsObj).getBaseObject() instanceof ContentWrite) {
+                return ((BaseJSObject<?>) jsObj).getBaseObject();
             }
-        };
+            throw new IllegalArgumentException("getContentWrite must be called on a content");
+        }
     }
 }
@@ -0,0 +1,252 @@
+package com.atex.onecms.scripting.api;
+
+import com.atex.onecms.content.aspects.Aspect;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A LazyAspectMap exposes the aspects of a content to scripts as <code>content.aspects</code>, including contentData,
+ * without building a map of every aspect up front. It is a map of aspects by name, as <code>content.aspects</code>
+ * has always been, so scripts can still use <code>content.aspects.contentData</code> as well as the Map methods. An
+ * aspect is looked up by name the first time it is accessed, and only the aspects that are accessed, put or removed
+ * are kept in the map.
+ * Like a map, putting or removing an aspect only changes what scripts see, not the underlying content.
+ */
+final class LazyAspectMap extends AbstractMap<String, Aspect<?>> {
+
+    static final String CONTENT_DATA = "contentData";
+
+    /**
+     * Marks an aspect that has been removed.
+     */
+    private static final Object REMOVED = new Object();
+
+    private final Collection<Aspect<?>> aspects;
+
+    private final Object contentData;
+
+    /**
+     * The aspects that have been accessed, put or removed, by name, created on first access. Removed aspects are
+     * marked with REMOVED, as null is a value that can be put.
+     */
+    private Map<String, Object> touched;
+
+    /**
+     * Create a new LazyAspectMap.
+     * @param aspects The aspects of the content.
+     * @param contentData The content data, exposed as the contentData aspect.
+     */
+    LazyAspectMap(final Collection<Aspect<?>> aspects, final Object contentData) {
+        this.aspects = aspects;
+        this.contentData = contentData;
+    }
+
+    /**
+     * Type the aspects of a content. The content API returns a raw collection of aspects, which always holds
+     * aspects, so it is viewed as one without copying it.
+     * @param aspects The aspects returned by the content API.
+     * @return The same collection.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static Collection<Aspect<?>> typed(final Collection<Aspect> aspects) {
+        return (Collection<Aspect<?>>) (Collection<?>) aspects;
+    }
+
+    private Map<String, Object> getTouched() {
+        if (touched == null) {
+            touched = new HashMap<>();
+        }
+        return touched;
+    }
+
+    /**
+     * Look up an aspect of the content.
+     * @param name The name of the aspect.
+     * @return The aspect, or null if the content has no aspect with the name.
+     */
+    private Aspect<?> lookup(final String name) {
+        if (CONTENT_DATA.equals(name)) {
+            return new Aspect<>(CONTENT_DATA, contentData);
+        }
+        for (Aspect<?> aspect : aspects) {
+            if (name.equals(aspect.getName())) {
+                return aspect;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get an aspect, looking it up and keeping it the first time it is accessed.
+     * @param name The name of the aspect.
+     * @return The aspect, or REMOVED if there is no aspect with the name.
+     */
+    private Object find(final Object name) {
+        if (!(name instanceof String)) {
+            return REMOVED;
+        }
+        if (touched != null && touched.containsKey(name)) {
+            return touched.get(name);
+        }
+        final Aspect<?> aspect = lookup((String) name);
+        if (aspect == null) {
+            return REMOVED;
+        }
+        getTouched().put((String) name, aspect);
+        return aspect;
+    }
+
+    private static Aspect<?> value(final Object aspect) {
+        return aspect == REMOVED ? null : (Aspect<?>) aspect;
+    }
+
+    @Override
+    public Aspect<?> get(final Object name) {
+        return value(find(name));
+    }
+
+    @Override
+    public boolean containsKey(final Object name) {
+        return find(name) != REMOVED;
+    }
+
+    @Override
+    public Aspect<?> put(final String name, final Aspect<?> aspect) {
+        final Aspect<?> previous = get(name);
+        getTouched().put(name, aspect);
+        return previous;
+    }
+
+    @Override
+    public Aspect<?> remove(final Object name) {
+        final Aspect<?> previous = get(name);
+        if (name instanceof String) {
+            getTouched().put((String) name, REMOVED);
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return names().size();
+    }
+
+    /**
+     * Get the names of the aspects. Only the names are collected, the aspects are still looked up when they are
+     * accessed.
+     * @return The names of the aspects, in the order of the content's aspects, followed by contentData and the
+     * aspects that have been put.
+     */
+    private Set<String> names() {
+        final Set<String> names = new LinkedHashSet<>();
+        for (Aspect<?> aspect : aspects) {
+            names.add(aspect.getName());
+        }
+        names.add(CONTENT_DATA);
+        if (touched != null) {
+            touched.forEach((name, aspect) -> {
+                if (aspect == REMOVED) {
+                    names.remove(name);
+                } else {
+                    names.add(name);
+                }
+            });
+        }
+        return names;
+    }
+
+    @Override
+    public Set<Entry<String, Aspect<?>>> entrySet() {
+        return new AbstractSet<Entry<String, Aspect<?>>>() {
+            @Override
+            public Iterator<Entry<String, Aspect<?>>> iterator() {
+                final Iterator<String> names = names().iterator();
+                return new Iterator<Entry<String, Aspect<?>>>() {
+
+                    private String name;
+
+                    @Override
+                    public boolean hasNext() {
+                        return names.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Aspect<?>> next() {
+                        name = names.next();
+                        return new AspectEntry(name);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (name == null) {
+                            throw new IllegalStateException();
+                        }
+                        LazyAspectMap.this.remove(name);
+                        name = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return LazyAspectMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * An entry of the map, which looks its aspect up when its value is first accessed.
+     */
+    private final class AspectEntry implements Entry<String, Aspect<?>> {
+
+        private final String name;
+
+        AspectEntry(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getKey() {
+            return name;
+        }
+
+        @Override
+        public Aspect<?> getValue() {
+            return get(name);
+        }
+
+        @Override
+        public Aspect<?> setValue(final Aspect<?> aspect) {
+            return put(name, aspect);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            final Entry<?, ?> entry = (Entry<?, ?>) o;
+            final Object value = getValue();
+            return name.equals(entry.getKey())
+                    && (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            final Object value = getValue();
+            return name.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + getValue();
+        }
+    }
+}
@@ -1,11 +1,8 @@
 package com.atex.onecms.scripting.api;
 
-import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.function.Supplier;
-
 import com.atex.onecms.scripting.ContextMap;
 import com.atex.onecms.scripting.ImmutableException;
+import jdk.nashorn.api.scripting.AbstractJSObject;
 
 /**
  * ScriptEngineContext wraps a ContextMap and makes it more usable in the JS environment.
@@ -14,6 +11,17 @@ import com.atex.onecms.scripting.ImmutableException;
  */
 public class ScriptEngineContext extends BaseJSObject<ContextMap> {
 
+    /**
+     * The context functions, created the first time a script accesses each of them.
+     */
+    private ContextFunction get;
+
+    private ContextFunction put;
+
+    private ContextFunction remove;
+
+    private ContextFunction getBaseObject;
+
     /**
      * Create a new ScriptEngineContext from a ContextMap.
      *
@@ -49,22 +57,42 @@ public class ScriptEngineContext extends BaseJSObject<ContextMap> {
     }
 
     /**
-     * Expose the necessary get and put methods to the user in JS-land.
+     * Expose the necessary get and put methods to the user in JS-land. Each function is created the first time it is
+     * accessed, and then reused, so calling them repeatedly doesn't allocate functions.
      * @param name The name of the context item.
      * @return The context item.
      */
     @Override
     public Object getMember(final String name) {
-        if ("get".equals(name)) {
-            return (Function<String, Object>) baseObject::get;
-        } else if ("put".equals(name)) {
-            return (BiFunction<String, Object, Object>) baseObject::put;
-        } else if ("remove".equals(name)) {
-            return (Function<Object, Object>) baseObject::remove;
-        } else if ("getBaseObject".equals(name)) {
-            return (Supplier<ContextMap>) super::getBaseObject;
+        switch (name) {
+            case "get":
+                if (get == null) {
+                    get = new ContextFunction(baseObject, Operation.GET);
+                }
+                return get;
+            case "put":
+                if (put == null) {
+                    put = new ContextFunction(baseObject, Operation.PUT);
+                }
+                return put;
+            case "remove":
+                if (remove == null) {
+                    remove = new ContextFunction(baseObject, Operation.REMOVE);
+                }
+                return remove;
+            case "getBaseObject":
+                if (getBaseObject == null) {
+                    getBaseObject = new ContextFunction(baseObject, Operation.GET_BASE_OBJECT);
+                }
+                return getBaseObject;
+            default:
+                return baseObject.get(name);
         }
-        return baseObject.get(name);
+    }
+
+    @Override
+    public boolean hasMember(final String name) {
+        return baseObject.containsKey(name);
     }
 
     @Override
@@ -74,4 +102,81 @@ public class ScriptEngineContext extends BaseJSObject<ContextMap> {
         }
         baseObject.put(name, value);
     }
+
+    /**
+     * Get the key a context function was called with, converting JavaScript strings to Java strings.
+     */
+    private static String key(final Object[] args) {
+        return args.length > 0 && args[0] != null ? args[0].toString() : null;
+    }
+
+    /**
+     * Get the value a context function was called with, converting JavaScript strings to Java strings.
+     */
+    private static Object value(final Object[] args) {
+        final Object value = args.length > 1 ? args[1] : null;
+        return value instanceof CharSequence ? value.toString() : value;
+    }
+
+    /**
+     * The operations of the context functions.
+     */
+    private enum Operation {
+        GET {
+            @Override
+            Object apply(final ContextMap context, final Object[] args) {
+                return context.get(key(args));
+            }
+        },
+        PUT {
+            @Override
+            Object apply(final ContextMap context, final Object[] args) {
+                return context.put(key(args), value(args));
+            }
+        },
+        REMOVE {
+            @Override
+            Object apply(final ContextMap context, final Object[] args) {
+                return context.remove(key(args));
+            }
+        },
+        GET_BASE_OBJECT {
+            @Override
+            Object apply(final ContextMap context, final Object[] args) {
+                return context;
+            }
+        };
+
+        abstract Object apply(ContextMap context, Object[] args);
+    }
+
+    /**
+     * A function of the ContextMap of the ScriptEngineContext it is called on, or of the context it was read from
+     * when it is called on its own, e.g. <code>var get = context.get; get('x')</code>.
+     */
+    private static final class ContextFunction extends AbstractJSObject {
+
+        private final ContextMap owner;
+
+        private final Operation operation;
+
+        ContextFunction(final ContextMap owner, final Operation operation) {
+            this.owner = owner;
+            this.operation = operation;
+        }
+
+        @Override
+        public Object call(final Object jsObj, final Object... args) {
+            final ContextMap context = jsObj instanceof BaseJSObject
+                    && ((BaseJSObject<?>) jsObj).getBaseObject() instanceof ContextMap
+                    ? (ContextMap) ((BaseJSObject<?>) jsObj).getBaseObject()
+                    : owner;
+            return operation.apply(context, args);
+        }
+
+        @Override
+        public boolean isFunction() {
+            return true;
+        }
+    }
 }
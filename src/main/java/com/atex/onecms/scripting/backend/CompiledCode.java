@@ -0,0 +1,7 @@
+package com.atex.onecms.scripting.backend;
+
+/**
+ * A script compiled by a {@link ScriptRuntime}. Its form is up to the backend.
+ */
+public interface CompiledCode {
+}
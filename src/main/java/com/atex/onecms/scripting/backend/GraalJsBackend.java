@@ -0,0 +1,196 @@
+package com.atex.onecms.scripting.backend;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.ScriptException;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+
+import com.atex.onecms.scripting.LifecycleScriptingConfiguration;
+
+/**
+ * The GraalJS backend, chosen with the scriptBackend property set to graaljs. It needs GraalJS and the GraalVM
+ * polyglot API on the classpath.
+ * Every runtime is a polyglot Context created from one Engine shared by the backend, so code compiled by one runtime
+ * is reused by the others. Each runtime keeps its Context for as long as it is pooled: a scope records the globals
+ * when it is created, and restores them when it is closed, so the globals a script defines aren't seen by the next.
+ * Facades such as a ContentWriteFacade are given to scripts as proxy objects, including facades scripts create with
+ * new from a class looked up with Java.type.
+ */
+public final class GraalJsBackend implements ScriptBackend {
+
+    public static final String NAME = "graaljs";
+
+    private static final String LANGUAGE = "js";
+
+    private final Engine engine = Engine.create();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ScriptRuntime createRuntime(final LifecycleScriptingConfiguration configuration) {
+        return new GraalJsRuntime(Context.newBuilder(LANGUAGE)
+                .engine(engine)
+                .allowHostAccess(HostAccess.ALL)
+                .allowHostClassLookup(className -> true)
+                .allowExperimentalOptions(true)
+                .option("js.nashorn-compat", "true")
+                .build());
+    }
+
+    private static ScriptException toScriptException(final PolyglotException e) {
+        final ScriptException error = e.getSourceLocation() != null
+                ? new ScriptException(e.getMessage(), e.getSourceLocation().getSource().getName(),
+                        e.getSourceLocation().getStartLine(), e.getSourceLocation().getStartColumn())
+                : new ScriptException(e.getMessage());
+        error.initCause(e);
+        return error;
+    }
+
+    private static final class GraalJsRuntime implements ScriptRuntime {
+
+        private final Context context;
+
+        private final Value globals;
+
+        private final Value undefined;
+
+        GraalJsRuntime(final Context context) {
+            this.context = context;
+            this.globals = context.getBindings(LANGUAGE);
+            this.undefined = context.eval(LANGUAGE, "undefined");
+        }
+
+        @Override
+        public void loadLibrary(final String source, final Map<String, Object> libraryGlobals) throws ScriptException {
+            for (Map.Entry<String, Object> global : libraryGlobals.entrySet()) {
+                globals.putMember(global.getKey(), JSObjectProxy.toGuest(global.getValue()));
+            }
+            final Value java = globals.getMember("Java");
+            if (java != null && java.hasMember("type")) {
+                final Value type = java.getMember("type");
+                java.putMember("type",
+                        (ProxyExecutable) arguments -> JSObjectProxy.toGuestType(type.execute((Object[]) arguments)));
+            }
+            try {
+                context.eval(Source.newBuilder(LANGUAGE, source, "script-util.js").buildLiteral());
+            } catch (PolyglotException e) {
+                throw toScriptException(e);
+            }
+        }
+
+        @Override
+        public CompiledCode compile(final String name, final String source) throws ScriptException {
+            final Source compiled = Source.newBuilder(LANGUAGE, source, name).cached(true).buildLiteral();
+            try {
+                // Parsing checks the script compiles, and caches the parsed script in the shared engine.
+                context.parse(compiled);
+            } catch (PolyglotException e) {
+                throw toScriptException(e);
+            }
+            return new GraalJsCode(compiled);
+        }
+
+        @Override
+        public ScriptScope createScope() {
+            final Map<String, Value> saved = new HashMap<>();
+            for (String name : globals.getMemberKeys()) {
+                saved.put(name, globals.getMember(name));
+            }
+            return new GraalJsScope(this, saved);
+        }
+
+        @Override
+        public void cancel() {
+            context.close(true);
+        }
+    }
+
+    private static final class GraalJsCode implements CompiledCode {
+
+        private final Source source;
+
+        GraalJsCode(final Source source) {
+            this.source = source;
+        }
+    }
+
+    private static final class GraalJsScope implements ScriptScope {
+
+        private final GraalJsRuntime runtime;
+
+        /**
+         * The globals when the scope was created.
+         */
+        private final Map<String, Value> saved;
+
+        GraalJsScope(final GraalJsRuntime runtime, final Map<String, Value> saved) {
+            this.runtime = runtime;
+            this.saved = saved;
+        }
+
+        @Override
+        public void put(final String name, final Object value) {
+            runtime.globals.putMember(name, JSObjectProxy.toGuest(value));
+        }
+
+        @Override
+        public Object get(final String name) {
+            return runtime.globals.hasMember(name) ? JSObjectProxy.toHost(runtime.globals.getMember(name)) : null;
+        }
+
+        @Override
+        public void eval(final CompiledCode code) throws ScriptException {
+            try {
+                runtime.context.eval(((GraalJsCode) code).source);
+            } catch (PolyglotException e) {
+                // Like Nashorn, runtime exceptions thrown by Java code, e.g. an ImmutableException, reach the caller.
+                if (e.isHostException() && e.asHostException() instanceof RuntimeException) {
+                    throw (RuntimeException) e.asHostException();
+                }
+                throw toScriptException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            for (String name : runtime.globals.getMemberKeys()) {
+                final Value original = saved.get(name);
+                if (original == null) {
+                    // Globals declared with var can't be removed, so they are left undefined instead.
+                    if (!removeMember(name)) {
+                        putMember(name, runtime.undefined);
+                    }
+                } else if (!original.equals(runtime.globals.getMember(name))) {
+                    putMember(name, original);
+                }
+            }
+        }
+
+        private boolean removeMember(final String name) {
+            try {
+                return runtime.globals.removeMember(name);
+            } catch (UnsupportedOperationException | PolyglotException e) {
+                return false;
+            }
+        }
+
+        private void putMember(final String name, final Value value) {
+            try {
+                runtime.globals.putMember(name, value);
+            } catch (UnsupportedOperationException | PolyglotException e) {
+                // A read-only global, which the script can't have changed either.
+            }
+        }
+    }
+}
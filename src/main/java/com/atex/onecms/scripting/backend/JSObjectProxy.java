@@ -0,0 +1,189 @@
+package com.atex.onecms.scripting.backend;
+
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.Proxy;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyExecutable;
+import org.graalvm.polyglot.proxy.ProxyInstantiable;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+import jdk.nashorn.api.scripting.JSObject;
+
+/**
+ * A JSObjectProxy gives a JSObject, e.g. a {@link com.atex.onecms.scripting.api.BaseJSObject} facade, to GraalJS
+ * scripts as a proxy object, so scripts use it the same way they do on Nashorn. Proxies have no prototype, so the
+ * Object.prototype functions scripts call on objects, e.g. hasOwnProperty, are provided by the proxy when the object
+ * doesn't provide them itself.
+ */
+final class JSObjectProxy implements ProxyObject {
+
+    private final JSObject object;
+
+    private JSObjectProxy(final JSObject object) {
+        this.object = object;
+    }
+
+    /**
+     * Convert a Java value for a script, wrapping JSObjects in proxies.
+     * @param value The Java value.
+     * @return The value to give to the script.
+     */
+    static Object toGuest(final Object value) {
+        if (value instanceof JSObject) {
+            final JSObject jsObject = (JSObject) value;
+            return jsObject.isFunction() ? new FunctionProxy(jsObject, null) : new JSObjectProxy(jsObject);
+        }
+        return value;
+    }
+
+    /**
+     * Convert a Java class looked up by a script with Java.type. Instances of JSObject classes the script creates
+     * with new are wrapped in proxies, as they would be if they were passed to the script.
+     * @param type The class, as returned by Java.type.
+     * @return The class to give to the script.
+     */
+    static Object toGuestType(final Value type) {
+        if (type.isHostObject() && type.asHostObject() instanceof Class) {
+            final Class<?> typeClass = type.asHostObject();
+            if (JSObject.class.isAssignableFrom(typeClass) && !Modifier.isAbstract(typeClass.getModifiers())) {
+                return (ProxyInstantiable) arguments -> toGuest(type.newInstance((Object[]) arguments).asHostObject());
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Convert a value from a script to Java, unwrapping proxies and host objects. Script objects are returned as
+     * polyglot values.
+     * @param value The value from the script.
+     * @return The Java value.
+     */
+    static Object toHost(final Value value) {
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        if (value.isProxyObject()) {
+            final Proxy proxy = value.asProxyObject();
+            if (proxy instanceof JSObjectProxy) {
+                return ((JSObjectProxy) proxy).object;
+            }
+            if (proxy instanceof FunctionProxy) {
+                return ((FunctionProxy) proxy).function;
+            }
+            if (proxy instanceof MapProxy) {
+                return ((MapProxy) proxy).getMap();
+            }
+            return proxy;
+        }
+        if (value.isHostObject()) {
+            return value.asHostObject();
+        }
+        if (value.isString()) {
+            return value.asString();
+        }
+        if (value.isBoolean()) {
+            return value.asBoolean();
+        }
+        if (value.isNumber()) {
+            // Like Nashorn, numbers are ints when they fit, and doubles otherwise.
+            return value.fitsInInt() ? (Object) value.asInt() : (Object) value.asDouble();
+        }
+        return value;
+    }
+
+    private static Object[] toHost(final Value[] values) {
+        final Object[] converted = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            converted[i] = toHost(values[i]);
+        }
+        return converted;
+    }
+
+    @Override
+    public Object getMember(final String key) {
+        final Object member = object.getMember(key);
+        if (member == null && !object.hasMember(key)) {
+            return getBuiltin(key);
+        }
+        if (member instanceof JSObject && ((JSObject) member).isFunction()) {
+            // Bind functions to the object they were read from, as the facades' functions act on their this.
+            return new FunctionProxy((JSObject) member, object);
+        }
+        if (member instanceof Map) {
+            // Maps the facades expose, e.g. content.aspects, give their entries as members, as they do on Nashorn.
+            return new MapProxy((Map<?, ?>) member);
+        }
+        return toGuest(member);
+    }
+
+    @Override
+    public Object getMemberKeys() {
+        return ProxyArray.fromArray(object.keySet().toArray());
+    }
+
+    /**
+     * Get an Object.prototype function for the object.
+     * @param key The name of the function.
+     * @return The function, or null if there is no such function.
+     */
+    private Object getBuiltin(final String key) {
+        switch (key) {
+            case "hasOwnProperty":
+            case "propertyIsEnumerable":
+                return (ProxyExecutable) arguments -> arguments.length > 0
+                        && object.hasMember(String.valueOf(toHost(arguments[0])));
+            case "isPrototypeOf":
+                return (ProxyExecutable) arguments -> false;
+            case "toString":
+            case "toLocaleString":
+                return (ProxyExecutable) arguments -> "[object " + object.getClassName() + "]";
+            case "valueOf":
+                return (ProxyExecutable) arguments -> this;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Check if the object has a member. Unlike Nashorn, GraalJS only calls functions that are members, so members
+     * the object only provides through getMember, e.g. the get function of a ScriptEngineContext, count as well.
+     */
+    @Override
+    public boolean hasMember(final String key) {
+        return object.hasMember(key) || object.getMember(key) != null || getBuiltin(key) != null;
+    }
+
+    @Override
+    public void putMember(final String key, final Value value) {
+        object.setMember(key, toHost(value));
+    }
+
+    @Override
+    public boolean removeMember(final String key) {
+        object.removeMember(key);
+        return true;
+    }
+
+    /**
+     * A function member of a JSObject, called with the object it was read from as its this.
+     */
+    private static final class FunctionProxy implements ProxyExecutable {
+
+        private final JSObject function;
+
+        private final Object thiz;
+
+        FunctionProxy(final JSObject function, final Object thiz) {
+            this.function = function;
+            this.thiz = thiz;
+        }
+
+        @Override
+        public Object execute(final Value... arguments) {
+            return toGuest(function.call(thiz, toHost(arguments)));
+        }
+    }
+}
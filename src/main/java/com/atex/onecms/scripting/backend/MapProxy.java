@@ -0,0 +1,59 @@
+package com.atex.onecms.scripting.backend;
+
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import java.util.Map;
+
+/**
+ * A MapProxy gives a Map a facade exposes to GraalJS scripts the way Nashorn does, e.g. <code>content.aspects</code>.
+ * The map's methods are members like on any Java object, and any other member is an entry of the map, so scripts can
+ * use <code>map.key</code> and <code>map['key']</code> as well as <code>map.get('key')</code>.
+ */
+final class MapProxy implements ProxyObject {
+
+    private final Map<Object, Object> map;
+
+    @SuppressWarnings("unchecked")
+    MapProxy(final Map<?, ?> map) {
+        this.map = (Map<Object, Object>) map;
+    }
+
+    Map<?, ?> getMap() {
+        return map;
+    }
+
+    /**
+     * Get a member, preferring the map's methods over its entries, as Nashorn does.
+     */
+    @Override
+    public Object getMember(final String key) {
+        final Value host = Value.asValue(map);
+        if (host.hasMember(key)) {
+            return host.getMember(key);
+        }
+        return JSObjectProxy.toGuest(map.get(key));
+    }
+
+    @Override
+    public Object getMemberKeys() {
+        return ProxyArray.fromArray(map.keySet().toArray());
+    }
+
+    @Override
+    public boolean hasMember(final String key) {
+        return map.containsKey(key) || Value.asValue(map).hasMember(key);
+    }
+
+    @Override
+    public void putMember(final String key, final Value value) {
+        map.put(key, JSObjectProxy.toHost(value));
+    }
+
+    @Override
+    public boolean removeMember(final String key) {
+        map.remove(key);
+        return true;
+    }
+}
@@ -0,0 +1,169 @@
+package com.atex.onecms.scripting.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import com.atex.onecms.scripting.LifecycleScriptingConfiguration;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+
+/**
+ * The Nashorn backend, which is the default. Each runtime is a Nashorn engine, and each scope is a new global whose
+ * global scope is the global the library script was evaluated in. Engines are created with the Nashorn options of
+ * the configuration, including the persistent code cache.
+ */
+public final class NashornBackend implements ScriptBackend {
+
+    public static final String NAME = "nashorn";
+
+    private static final Logger LOGGER = Logger.getLogger(NashornBackend.class.getName());
+
+    /**
+     * The system property Nashorn reads the persistent code cache directory from. Nashorn has no engine option for
+     * the directory, so there is one code cache directory for the whole JVM.
+     */
+    private static final String CODE_CACHE_PROPERTY = "nashorn.persistent.code.cache";
+
+    /**
+     * The code cache directory this backend set, or null if it hasn't set one.
+     */
+    private static String codeCacheDirectory;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ScriptRuntime createRuntime(final LifecycleScriptingConfiguration configuration) {
+        return new NashornRuntime((NashornScriptEngine) new NashornScriptEngineFactory()
+                .getScriptEngine(getArguments(configuration)));
+    }
+
+    /**
+     * Get the arguments to create a Nashorn engine with.
+     * @param configuration The engine configuration.
+     * @return The Nashorn command line arguments.
+     */
+    private static String[] getArguments(final LifecycleScriptingConfiguration configuration) {
+        final List<String> arguments = new ArrayList<>();
+        if (configuration.getCodeCacheDirectory() != null) {
+            setCodeCacheDirectory(configuration.getCodeCacheDirectory());
+            arguments.add("--persistent-code-cache=true");
+        }
+        // Only options that differ from Nashorn's defaults are passed, so engines are created as before by default.
+        if (configuration.isOptimisticTypes()) {
+            arguments.add("--optimistic-types=true");
+        }
+        if (!configuration.isLazyCompilation()) {
+            arguments.add("--lazy-compilation=false");
+        }
+        for (String argument : configuration.getNashornArguments().trim().split("\\s+")) {
+            if (!argument.isEmpty()) {
+                arguments.add(argument);
+            }
+        }
+        return arguments.toArray(new String[0]);
+    }
+
+    /**
+     * Set the code cache directory system property the first time an engine uses the code cache. Later engines share
+     * that directory, as changing the property would move the code cache of every Nashorn engine in the JVM.
+     * @param directory The code cache directory of the configuration.
+     */
+    private static synchronized void setCodeCacheDirectory(final String directory) {
+        if (codeCacheDirectory == null) {
+            codeCacheDirectory = directory;
+            System.setProperty(CODE_CACHE_PROPERTY, directory);
+        } else if (!codeCacheDirectory.equals(directory)) {
+            LOGGER.log(Level.WARNING, "Nashorn's persistent code cache is already in " + codeCacheDirectory
+                    + ", not using " + directory);
+        }
+    }
+
+    private static final class NashornRuntime implements ScriptRuntime {
+
+        private final NashornScriptEngine engine;
+
+        private Bindings libraryBindings;
+
+        NashornRuntime(final NashornScriptEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public void loadLibrary(final String source, final Map<String, Object> globals) throws ScriptException {
+            final Bindings bindings = engine.createBindings();
+            bindings.putAll(globals);
+            final ScriptContext ctx = new SimpleScriptContext();
+            ctx.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+            engine.eval(source, ctx);
+            libraryBindings = bindings;
+        }
+
+        @Override
+        public CompiledCode compile(final String name, final String source) throws ScriptException {
+            return new NashornCode(engine.compile(source));
+        }
+
+        @Override
+        public ScriptScope createScope() {
+            final ScriptContext ctx = new SimpleScriptContext();
+            ctx.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+            if (libraryBindings != null) {
+                ctx.setBindings(libraryBindings, ScriptContext.GLOBAL_SCOPE);
+            }
+            return new NashornScope(ctx);
+        }
+    }
+
+    private static final class NashornCode implements CompiledCode {
+
+        private final CompiledScript script;
+
+        NashornCode(final CompiledScript script) {
+            this.script = script;
+        }
+    }
+
+    private static final class NashornScope implements ScriptScope {
+
+        private final ScriptContext ctx;
+
+        private final Bindings bindings;
+
+        NashornScope(final ScriptContext ctx) {
+            this.ctx = ctx;
+            this.bindings = ctx.getBindings(ScriptContext.ENGINE_SCOPE);
+        }
+
+        @Override
+        public void put(final String name, final Object value) {
+            bindings.put(name, value);
+        }
+
+        @Override
+        public Object get(final String name) {
+            return bindings.get(name);
+        }
+
+        @Override
+        public void eval(final CompiledCode code) throws ScriptException {
+            ((NashornCode) code).script.eval(ctx);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.atex.onecms.scripting.backend;
+
+import com.atex.onecms.scripting.LifecycleScriptingConfiguration;
+
+/**
+ * A ScriptBackend is a JavaScript implementation the engine runs scripts on, such as Nashorn or GraalJS. Backends are
+ * found with a {@link java.util.ServiceLoader}, and the one the engine uses is chosen by name with the scriptBackend
+ * configuration property.
+ */
+public interface ScriptBackend {
+
+    /**
+     * @return The name the backend is chosen by, e.g. nashorn.
+     */
+    String getName();
+
+    /**
+     * Create a runtime for one pooled engine. The runtime is only ever used by one thread at a time.
+     * @param configuration The engine configuration.
+     * @return A new runtime.
+     */
+    ScriptRuntime createRuntime(LifecycleScriptingConfiguration configuration);
+}
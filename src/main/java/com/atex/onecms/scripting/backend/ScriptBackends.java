@@ -0,0 +1,44 @@
+package com.atex.onecms.scripting.backend;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds script backends by name.
+ */
+public final class ScriptBackends {
+
+    private static final Logger LOGGER = Logger.getLogger(ScriptBackends.class.getName());
+
+    private ScriptBackends() {
+    }
+
+    /**
+     * Get a backend by name. Backends whose dependencies aren't on the classpath, e.g. GraalJS without the polyglot
+     * API, are skipped.
+     * @param name The name of the backend.
+     * @return The backend.
+     * @throws IllegalArgumentException If there is no backend with the name.
+     */
+    public static ScriptBackend get(final String name) {
+        final Iterator<ScriptBackend> backends = ServiceLoader.load(ScriptBackend.class,
+                ScriptBackend.class.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!backends.hasNext()) {
+                    break;
+                }
+                final ScriptBackend backend = backends.next();
+                if (backend.getName().equals(name)) {
+                    return backend;
+                }
+            } catch (ServiceConfigurationError | LinkageError e) {
+                LOGGER.log(Level.FINE, "Skipping script backend that cannot be loaded", e);
+            }
+        }
+        throw new IllegalArgumentException("No script backend named " + name);
+    }
+}
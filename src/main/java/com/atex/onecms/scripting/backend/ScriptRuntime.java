@@ -0,0 +1,44 @@
+package com.atex.onecms.scripting.backend;
+
+import java.util.Map;
+
+import javax.script.ScriptException;
+
+/**
+ * A ScriptRuntime compiles scripts and evaluates them in isolated scopes. Every scope sees the globals of the library
+ * script, but the globals a script defines are only seen by its own scope. A runtime is only used by one thread at a
+ * time.
+ */
+public interface ScriptRuntime {
+
+    /**
+     * Evaluate the library script, whose globals every scope sees. This is called once, before the first scope is
+     * created.
+     * @param source The source of the library script.
+     * @param globals The values the library script is evaluated with, e.g. contentManager.
+     * @throws ScriptException If the library script cannot be evaluated.
+     */
+    void loadLibrary(String source, Map<String, Object> globals) throws ScriptException;
+
+    /**
+     * Compile a script for this runtime.
+     * @param name The name of the script, for errors.
+     * @param source The source of the script.
+     * @return The compiled script, which can only be evaluated in scopes created by this runtime.
+     * @throws ScriptException If the script doesn't compile.
+     */
+    CompiledCode compile(String name, String source) throws ScriptException;
+
+    /**
+     * Create a new scope to evaluate a script in. A scope can be created while another is open, when a script runs
+     * another script, and scopes are closed in the reverse order they were created.
+     * @return The new scope.
+     */
+    ScriptScope createScope();
+
+    /**
+     * Stop the script that is running, from another thread. The runtime isn't used again after it is cancelled.
+     */
+    default void cancel() {
+    }
+}
@@ -0,0 +1,36 @@
+package com.atex.onecms.scripting.backend;
+
+import javax.script.ScriptException;
+
+/**
+ * A ScriptScope holds the globals of one script evaluation, e.g. the values in a script's context.
+ */
+public interface ScriptScope extends AutoCloseable {
+
+    /**
+     * Set a global.
+     * @param name The name of the global.
+     * @param value The value of the global.
+     */
+    void put(String name, Object value);
+
+    /**
+     * Get a global.
+     * @param name The name of the global.
+     * @return The value of the global as a Java value, or null if the global isn't defined.
+     */
+    Object get(String name);
+
+    /**
+     * Evaluate a compiled script in this scope.
+     * @param code A script compiled by the runtime that created this scope.
+     * @throws ScriptException If the script throws an error.
+     */
+    void eval(CompiledCode code) throws ScriptException;
+
+    /**
+     * Discard the globals of this scope.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,50 @@
+package com.atex.onecms.scripting.mail;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * A MailSender queues messages to one SMTP host with one set of credentials in the {@link MailService} outbox. It is
+ * what the emailHostSMTP script function returns.
+ */
+public final class MailSender {
+
+    private final MailService mailService;
+
+    private final SmtpConnection connection;
+
+    private final String from;
+
+    MailSender(final MailService mailService, final SmtpConnection connection, final String from) {
+        this.mailService = mailService;
+        this.connection = connection;
+        this.from = from;
+    }
+
+    /**
+     * Queue a message to be sent in the background.
+     * @param to The address of the recipient.
+     * @param subject The subject of the message.
+     * @param body The body of the message.
+     * @param contentType The MIME type of the body, e.g. text/plain.
+     * @throws MessagingException If the message is invalid, e.g. the address can't be parsed.
+     * @throws IllegalStateException If the outbox is full.
+     */
+    public void send(final String to,
+                     final String subject,
+                     final Object body,
+                     final String contentType) throws MessagingException {
+        final MimeMessage message = new MimeMessage(connection.getSession());
+        if (from != null) {
+            message.setFrom(new InternetAddress(from));
+        } else {
+            message.setFrom();
+        }
+        message.addRecipient(Message.RecipientType.TO, new InternetAddress(to));
+        message.setSubject(subject);
+        message.setContent(body, contentType);
+        mailService.enqueue(connection, message);
+    }
+}
@@ -0,0 +1,245 @@
+package com.atex.onecms.scripting.mail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The MailService sends the messages scripts queue with emailHostSMTP. Messages go into a bounded outbox and are
+ * sent by a background thread, so a save never waits on an SMTP server. The sender takes messages from the outbox in
+ * batches and sends each batch over one pooled connection per host and credentials. A message that fails is put
+ * aside until its retry delay has passed, so the sender carries on with other messages, and other hosts, meanwhile.
+ * Connections are closed once the outbox has been empty for a while.
+ */
+public final class MailService {
+
+    private static final Logger LOGGER = Logger.getLogger(MailService.class.getName());
+
+    /**
+     * How long the outbox is empty before open connections are closed.
+     */
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+    private final BlockingQueue<OutgoingMail> outbox;
+
+    /**
+     * Messages that failed, waiting for their retry delay to pass.
+     */
+    private final DelayQueue<OutgoingMail> retries = new DelayQueue<>();
+
+    private final int batchSize;
+
+    private final int maxAttempts;
+
+    private final long retryDelayMillis;
+
+    private final Map<List<String>, SmtpConnection> connections = new ConcurrentHashMap<>();
+
+    private final LongAdder sent = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private Thread sender;
+
+    private boolean closed;
+
+    /**
+     * Create a new MailService.
+     * @param outboxCapacity The number of messages that can wait to be sent.
+     * @param batchSize The most messages sent in one batch.
+     * @param maxAttempts The number of times a message is tried before it is dropped.
+     * @param retryDelayMillis The delay before a failed message is retried, multiplied by the number of attempts.
+     */
+    public MailService(final int outboxCapacity, final int batchSize, final int maxAttempts, final long retryDelayMillis) {
+        this.outbox = new LinkedBlockingQueue<>(outboxCapacity);
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Get a sender for an SMTP host.
+     * @param host The SMTP host, optionally followed by a colon and port, e.g. smtp.office365.com:587.
+     * @param user The user to authenticate as, also used as the from address, or null to send without
+     *             authenticating.
+     * @param password The password of the user.
+     * @return A sender that queues messages to the host.
+     */
+    public MailSender getSender(final String host, final String user, final String password) {
+        final SmtpConnection connection = connections.computeIfAbsent(Arrays.asList(host, user, password),
+                key -> new SmtpConnection(host, user, password));
+        return new MailSender(this, connection, user);
+    }
+
+    void enqueue(final SmtpConnection connection, final MimeMessage message) {
+        startSender();
+        if (!outbox.offer(new OutgoingMail(connection, message))) {
+            throw new IllegalStateException("Mail outbox is full");
+        }
+    }
+
+    /**
+     * Start the sender thread the first time a message is queued, so nodes that never send mail don't have one, or
+     * if the sender thread has died.
+     */
+    private synchronized void startSender() {
+        if (closed) {
+            throw new IllegalStateException("Mail service is closed");
+        }
+        if (sender == null || !sender.isAlive()) {
+            sender = new ThreadFactoryBuilder()
+                    .setNameFormat("lifecycle-script-mail-%d")
+                    .setDaemon(true)
+                    .build()
+                    .newThread(this::sendLoop);
+            sender.start();
+        }
+    }
+
+    private void sendLoop() {
+        try {
+            final List<OutgoingMail> batch = new ArrayList<>(batchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                retries.drainTo(batch, batchSize);
+                outbox.drainTo(batch, batchSize - batch.size());
+                if (batch.isEmpty()) {
+                    final OutgoingMail retry = retries.peek();
+                    final long waitMillis = retry != null
+                            ? Math.min(retry.getDelay(TimeUnit.MILLISECONDS), TimeUnit.SECONDS.toMillis(IDLE_TIMEOUT_SECONDS))
+                            : TimeUnit.SECONDS.toMillis(IDLE_TIMEOUT_SECONDS);
+                    final OutgoingMail first = outbox.poll(Math.max(waitMillis, 0), TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (retry == null) {
+                            connections.values().forEach(SmtpConnection::close);
+                        }
+                        continue;
+                    }
+                    batch.add(first);
+                    outbox.drainTo(batch, batchSize - 1);
+                }
+                sendBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.values().forEach(SmtpConnection::close);
+        }
+    }
+
+    /**
+     * Send a batch of messages, grouped by connection, keeping the order messages were queued in for each connection.
+     */
+    private void sendBatch(final List<OutgoingMail> batch) {
+        final Map<SmtpConnection, List<OutgoingMail>> byConnection = new LinkedHashMap<>();
+        for (OutgoingMail mail : batch) {
+            byConnection.computeIfAbsent(mail.connection, connection -> new ArrayList<>()).add(mail);
+        }
+        for (List<OutgoingMail> mails : byConnection.values()) {
+            mails.forEach(this::send);
+        }
+    }
+
+    /**
+     * Send a message, putting it aside to retry later if it fails. Any exception fails the message rather than the
+     * sender, so one bad message can't stop mail being sent.
+     */
+    private void send(final OutgoingMail mail) {
+        try {
+            mail.connection.send(mail.message);
+            sent.increment();
+        } catch (MessagingException | RuntimeException e) {
+            mail.connection.close();
+            mail.attempts++;
+            if (mail.attempts >= maxAttempts) {
+                failed.increment();
+                LOGGER.log(Level.SEVERE, "Failed to send mail through " + mail.connection + " after " + mail.attempts
+                        + " attempts", e);
+                return;
+            }
+            LOGGER.log(Level.WARNING, "Error sending mail through " + mail.connection + ", retrying", e);
+            mail.retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMillis * mail.attempts);
+            retries.add(mail);
+        }
+    }
+
+    /**
+     * Stop the sender thread and close the open connections. Messages still in the outbox are not sent, and no more
+     * messages can be queued.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (sender != null) {
+            sender.interrupt();
+        }
+    }
+
+    /**
+     * @return The number of messages waiting to be sent, including messages waiting to be retried.
+     */
+    public int getQueueSize() {
+        return outbox.size() + retries.size();
+    }
+
+    /**
+     * @return The number of messages that have been sent.
+     */
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    /**
+     * @return The number of messages that were dropped after failing every attempt to send them.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    private static final class OutgoingMail implements Delayed {
+
+        private final SmtpConnection connection;
+
+        private final MimeMessage message;
+
+        /**
+         * The number of times sending the message has failed.
+         */
+        private int attempts;
+
+        /**
+         * The time, from System.nanoTime, the message can be retried at.
+         */
+        private long retryAt;
+
+        OutgoingMail(final SmtpConnection connection, final MimeMessage message) {
+            this.connection = connection;
+            this.message = message;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(retryAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            return Long.compare(retryAt, ((OutgoingMail) other).retryAt);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.atex.onecms.scripting.mail;
+
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * An SmtpConnection is the session and pooled transport for one SMTP host and set of credentials. The transport is
+ * connected when the first message is sent and kept open for the messages after it, so a burst of messages shares
+ * one connection. Only the {@link MailService} sender thread sends messages and closes the transport.
+ */
+final class SmtpConnection {
+
+    private static final Logger LOGGER = Logger.getLogger(SmtpConnection.class.getName());
+
+    private static final int DEFAULT_PORT = 25;
+
+    private final Session session;
+
+    private final String host;
+
+    private final int port;
+
+    private final String user;
+
+    private final String password;
+
+    private Transport transport;
+
+    /**
+     * Create a new SmtpConnection.
+     * @param host The SMTP host, optionally followed by a colon and port.
+     * @param user The user to authenticate as, or null to send without authenticating.
+     * @param password The password of the user.
+     */
+    SmtpConnection(final String host, final String user, final String password) {
+        final int colon = host.lastIndexOf(':');
+        this.host = colon > 0 ? host.substring(0, colon) : host;
+        this.port = colon > 0 ? Integer.parseInt(host.substring(colon + 1)) : DEFAULT_PORT;
+        this.user = user;
+        this.password = password;
+        final Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", this.host);
+        properties.setProperty("mail.smtp.port", Integer.toString(port));
+        if (user != null) {
+            properties.setProperty("mail.smtp.auth", "true");
+            properties.setProperty("mail.smtp.starttls.enable", "true");
+        }
+        session = Session.getInstance(properties);
+    }
+
+    /**
+     * @return The session messages sent on this connection are created in.
+     */
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * Send a message, connecting the transport first if it isn't connected.
+     * @param message The message to send.
+     * @throws MessagingException If the message cannot be sent.
+     */
+    void send(final MimeMessage message) throws MessagingException {
+        if (transport == null || !transport.isConnected()) {
+            transport = session.getTransport("smtp");
+            transport.connect(host, port, user, password);
+        }
+        message.saveChanges();
+        transport.sendMessage(message, message.getAllRecipients());
+    }
+
+    /**
+     * Close the transport, so the next message opens a new connection.
+     */
+    void close() {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOGGER.log(Level.FINE, "Error closing SMTP connection to " + host, e);
+            }
+            transport = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,79 @@
+package com.atex.onecms.scripting.workflow;
+
+import com.atex.onecms.app.dam.workflow.WFStatusBean;
+import com.atex.onecms.app.dam.workflow.WFStatusUtils;
+import com.atex.onecms.content.ContentManager;
+import com.atex.onecms.content.ContentWrite;
+import com.atex.workflow.WebStatusUtils;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.rits.cloning.Cloner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The WorkflowStatusService backs the setWFStatus and setWebStatus script functions. It is held by the
+ * {@link com.atex.onecms.scripting.LifecycleScriptingEngine}, so the status utils are created once rather than on
+ * every call, and workflow status definitions are cached for a time to live instead of being read from the
+ * ContentManager on every save.
+ */
+public final class WorkflowStatusService {
+
+    private static final Cloner CLONER = new Cloner();
+
+    private final WFStatusUtils statusUtils;
+
+    private final WebStatusUtils webStatusUtils;
+
+    /**
+     * The workflow statuses by id, absent for ids that don't match a status.
+     */
+    private final LoadingCache<String, Optional<WFStatusBean>> statuses;
+
+    /**
+     * Create a new WorkflowStatusService.
+     * @param contentManager The ContentManager to read statuses with.
+     * @param statusCacheTtl The number of seconds statuses are cached for.
+     */
+    public WorkflowStatusService(final ContentManager contentManager, final long statusCacheTtl) {
+        statusUtils = new WFStatusUtils(contentManager);
+        webStatusUtils = new WebStatusUtils(contentManager);
+        statuses = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .expireAfterWrite(statusCacheTtl, TimeUnit.SECONDS)
+                .build(new CacheLoader<String, Optional<WFStatusBean>>() {
+                    @Override
+                    public Optional<WFStatusBean> load(final String statusId) {
+                        return Optional.fromNullable(statusUtils.getStatusById(statusId));
+                    }
+                });
+    }
+
+    /**
+     * Get a workflow status by id.
+     * @param statusId The id of the status.
+     * @return A copy of the status, that the caller may modify, or null if there is no status with the id.
+     */
+    public WFStatusBean getStatusById(final String statusId) {
+        final WFStatusBean status = statuses.getUnchecked(statusId).orNull();
+        return status != null ? CLONER.deepClone(status) : null;
+    }
+
+    /**
+     * Set the web status of a content.
+     * @param content The content to set the status on.
+     * @param statusId The id of the web status.
+     */
+    public void setWebStatus(final ContentWrite<?> content, final String statusId) {
+        webStatusUtils.setWebStatus(content, statusId);
+    }
+
+    /**
+     * Forget the cached statuses, e.g. after the status definitions have been edited.
+     */
+    public void invalidate() {
+        statuses.invalidateAll();
+    }
+}
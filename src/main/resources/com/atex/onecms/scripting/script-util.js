@@ -3,15 +3,28 @@
  */
 var ContentId = Java.type('com.atex.onecms.content.ContentId');
 var ScriptEngineContext = Java.type('com.atex.onecms.scripting.api.ScriptEngineContext');
+var BaseJSObject = Java.type('com.atex.onecms.scripting.api.BaseJSObject');
+var WFContentStatusAspectBean = Java.type('com.atex.onecms.app.dam.workflow.WFContentStatusAspectBean');
 
 /**
- * Resolve an externalId to a ContentVersionId using ContentManager.
+ * Check if a value is a content facade, e.g. a ContentWriteFacade, rather than the ContentWrite it wraps.
+ * Facades are BaseJSObjects on Nashorn, and proxy objects on GraalJS, so they are recognised by their members.
+ * @param {*} content The value to check.
+ * @returns {boolean} true if the value is a facade.
+ */
+function isFacade(content) {
+    return content != null && (content instanceof BaseJSObject || typeof content.getContentWrite === 'function');
+}
+
+/**
+ * Resolve an externalId to a ContentVersionId using ContentManager. Resolutions are cached by the engine, so the
+ * version returned may be as old as the resolveCacheTtl setting; use contentManager.resolve directly to get the
+ * latest version.
  * @param externalId The externalId to resolve.
  * @returns {ContentVersionId} The ContentVersionId of the Content that externalId refers to.
  */
 function resolve(externalId) {
-    var Subject = Java.type('com.atex.onecms.content.Subject');
-    return contentManager.resolve(externalId, Subject.NOBODY_CALLER);
+    return lifecycleScriptingEngine.getExternalIdResolver().resolve(externalId);
 }
 
 /**
@@ -22,7 +35,7 @@ function resolve(externalId) {
 function setPartition(content, partitionName) {
     var PartitionUtils = Java.type('com.atex.onecms.scripting.workflow.PartitionUtils');
 
-    if (content instanceof Java.type('com.atex.onecms.scripting.api.BaseJSObject')) {
+    if (isFacade(content)) {
         content = content.getContentWrite();
     }
     PartitionUtils.changePartition(content, partitionName);
@@ -34,16 +47,14 @@ function setPartition(content, partitionName) {
  * @param {string} statusId The statusID to set.
  */
 function setWFStatus(content, statusId) {
-    var WFStatusUtils = Java.type('com.atex.onecms.app.dam.workflow.WFStatusUtils');
-    var statusUtils = new WFStatusUtils(contentManager);
-    var statusBean = statusUtils.getStatusById(statusId);
+    var statusBean = lifecycleScriptingEngine.getWorkflowStatusService().getStatusById(statusId);
     if (statusBean === null) {
         throw new Error('No status with the ID "' + statusId + '"');
     }
-    if (content instanceof Java.type('com.atex.onecms.scripting.api.BaseJSObject')) {
+    if (isFacade(content)) {
         content = content.getContentWrite();
     }
-    var contentStatusBean = content.getAspect(Java.type('com.atex.onecms.app.dam.workflow.WFContentStatusAspectBean').ASPECT_NAME);
+    var contentStatusBean = content.getAspect(WFContentStatusAspectBean.ASPECT_NAME);
     contentStatusBean.setStatus(statusBean);
 }
 
@@ -53,12 +64,10 @@ function setWFStatus(content, statusId) {
  * @param {string} statusId The ID to set the status to.
  */
 function setWebStatus(content, statusId) {
-    var WebStatusUtils = Java.type('com.atex.workflow.WebStatusUtils');
-    var wsUtils = new WebStatusUtils(contentManager);
-    if (content instanceof Java.type('com.atex.onecms.scripting.api.BaseJSObject')) {
+    if (isFacade(content)) {
         content = content.getContentWrite();
     }
-    wsUtils.setWebStatus(content, statusId);
+    lifecycleScriptingEngine.getWorkflowStatusService().setWebStatus(content, statusId);
 }
 /**
  * @typedef {Object} ScriptEngineContext
@@ -74,7 +83,7 @@ function setWebStatus(content, statusId) {
  * @returns {ScriptEngineContext} An updated {@link ScriptEngineContext} object.
  */
 function run(scriptId, context) {
-    var engine = (Java.type('com.atex.onecms.scripting.LifecycleScriptingEngine')).getInstance(contentManager);
+    var engine = lifecycleScriptingEngine;
     if (context) {
         return engine.run(scriptId, context.getBaseObject());
     } else {
@@ -83,6 +92,25 @@ function run(scriptId, context) {
     }
 }
 
+/**
+ * Run a script with a given ID without waiting for it to complete. The returned future can be awaited with
+ * <code>join()</code>, which returns the same updated context as {@link run}, or composed with other futures.
+ * Awaiting the future needs a free script engine to run the script on, so it should not be awaited when all the
+ * engines could be busy running the scripts waiting on it.
+ * @param {string} scriptId The ID of the script to run.
+ * @param {ScriptEngineContext} context The context to provide the script.
+ * @returns {CompletableFuture} A future completed with the updated context.
+ */
+function runAsync(scriptId, context) {
+    var engine = lifecycleScriptingEngine;
+    if (context) {
+        return engine.runAsync(scriptId, context.getBaseObject());
+    } else {
+        var ContextMap = Java.type('com.atex.onecms.scripting.ContextMap');
+        return engine.runAsync(scriptId, new ContextMap());
+    }
+}
+
 /**
  * Invoke a script with an ID. The script is run in a different thread and context to this
  * one, meaning changes to this context will not effect it.
@@ -90,7 +118,7 @@ function run(scriptId, context) {
  * @param {ScriptEngineContext} context The context to provide the script.
  */
 function runDetached(scriptId, context) {
-    var engine = (Java.type('com.atex.onecms.scripting.LifecycleScriptingEngine')).getInstance(contentManager);
+    var engine = lifecycleScriptingEngine;
     if (context) {
         engine.runDetached(scriptId, context.getBaseObject());
     } else {
@@ -100,12 +128,13 @@ function runDetached(scriptId, context) {
 }
 
 /**
- * Get a scripts exports object.
+ * Get a scripts exports object. Exports are cached, so a module is only evaluated again once it, or a module it
+ * requires, has changed.
  * @param path
  * @returns {*|void}
  */
 function require(path) {
-    var engine = (Java.type('com.atex.onecms.scripting.LifecycleScriptingEngine')).getInstance(contentManager);
+    var engine = lifecycleScriptingEngine;
     return engine.require(path);
 }
 
@@ -118,6 +147,9 @@ function require(path) {
  * emailHostSMTP returns a function that can be used to send mail to a recipient
  * using the same credentials / smtp host server. Any content can by passed in the message body, however
  * if it's content type is anything other than text/plain a valid MIME content type should passed also.
+ * Messages are queued and sent in the background over a pooled connection, so send returns before the message
+ * is delivered, and messages that can't be delivered are logged. The host may include a port, e.g.
+ * smtp.office365.com:587.
  *
  *@example
  * // Get the sendMail function for host smtp.office365.com, username user@domain.com and password 'password'.
@@ -137,40 +169,11 @@ function require(path) {
  *          credentials already provided.
  */
 function emailHostSMTP(host, auth) {
-    var System = Java.type('java.lang.System');
-    var Authenticator = Java.type('javax.mail.Authenticator');
-    var AuthenticatorImpl = Java.extend(Authenticator);
-    var PasswordAuthentication = Java.type('javax.mail.PasswordAuthentication');
-    var Session = Java.type('javax.mail.Session');
-
-    var properties = System.getProperties();
-    properties.setProperty("mail.smtp.host", host);
-    var session;
-    if (auth) {
-        properties.setProperty("mail.smtp.auth", "true");
-        properties.setProperty("mail.smtp.starttls.enable", "true");
-        var authenticator = new AuthenticatorImpl() {
-            getPasswordAuthentication: function() {
-                return new PasswordAuthentication(auth.user, auth.password);
-            }
-        };
-        session = Session.getDefaultInstance(properties, authenticator);
-    } else {
-        session = Session.getDefaultInstance(properties);
-    }
+    var sender = lifecycleScriptingEngine.getMailService()
+        .getSender(host, auth ? auth.user : null, auth ? auth.password : null);
 
-    var send =  function (to, subject, body, contentType) {
-        var MimeMessage = Java.type('javax.mail.internet.MimeMessage');
-        var InternetAddress = Java.type('javax.mail.internet.InternetAddress');
-        var Message = Java.type('javax.mail.Message');
-        var Transport = Java.type('javax.mail.Transport');
-
-        var message = new MimeMessage(session);
-        message.setFrom(new InternetAddress(auth.user));
-        message.addRecipient(Message.RecipientType.TO, new InternetAddress(to));
-        message.setSubject(subject);
-        message.setContent(body, contentType ? contentType : 'text/plain');
-        Transport.send(message);
+    var send = function (to, subject, body, contentType) {
+        sender.send(to, subject, body, contentType ? contentType : 'text/plain');
     };
     return {
         send: send
@@ -0,0 +1,85 @@
+package com.atex.onecms.scripting;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DetachedScriptExecutorTest {
+
+    /**
+     * Create an executor with one worker and room for one queued task, and fill it with tasks that wait on a latch.
+     */
+    private DetachedScriptExecutor createFullExecutor(final DetachedScriptExecutor.RejectionPolicy policy,
+                                                      final CountDownLatch release) throws InterruptedException {
+        LifecycleScriptingConfiguration configuration = new LifecycleScriptingConfiguration();
+        configuration.setDetachedWorkers(1);
+        configuration.setDetachedQueueCapacity(1);
+        configuration.setDetachedRejectionPolicy(policy);
+        configuration.setDetachedBlockTimeout(50);
+        DetachedScriptExecutor executor = new DetachedScriptExecutor(configuration);
+
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(() -> await(release));
+        assertEquals(1, executor.getActiveCount());
+        assertEquals(1, executor.getQueueSize());
+        return executor;
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void callerRunsWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        DetachedScriptExecutor executor = createFullExecutor(DetachedScriptExecutor.RejectionPolicy.CALLER_RUNS, release);
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        executor.execute(() -> ranOn.set(Thread.currentThread()));
+        release.countDown();
+        assertSame(Thread.currentThread(), ranOn.get());
+        assertEquals(1, executor.getRejectedCount());
+    }
+
+    @Test
+    public void dropOldestWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        DetachedScriptExecutor executor = createFullExecutor(DetachedScriptExecutor.RejectionPolicy.DROP_OLDEST, release);
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(ran::countDown);
+        assertEquals(1, executor.getQueueSize());
+        assertEquals(1, executor.getRejectedCount());
+        release.countDown();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void blockTimesOutWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        DetachedScriptExecutor executor = createFullExecutor(DetachedScriptExecutor.RejectionPolicy.BLOCK, release);
+        AtomicBoolean ran = new AtomicBoolean();
+        try {
+            executor.execute(() -> ran.set(true));
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, executor.getRejectedCount());
+        } finally {
+            release.countDown();
+        }
+        assertFalse(ran.get());
+    }
+}
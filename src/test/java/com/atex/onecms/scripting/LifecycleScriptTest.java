@@ -8,13 +8,17 @@ import com.atex.onecms.content.*;
 import com.atex.onecms.content.aspects.Aspect;
 import com.atex.onecms.content.metadata.MetadataInfo;
 import com.atex.onecms.scripting.api.ContentWriteFacade;
+import com.atex.onecms.scripting.backend.NashornBackend;
+import com.atex.onecms.scripting.api.ScriptEngineContext;
 import com.atex.plugins.structured.text.StructuredText;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.polopoly.cm.ExternalContentId;
 import com.polopoly.metadata.Dimension;
 import com.polopoly.metadata.Entity;
 import com.polopoly.metadata.Metadata;
 import com.polopoly.util.StringUtil;
 import org.apache.commons.io.IOUtils;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -22,12 +26,24 @@ import org.junit.runners.MethodSorters;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.eq;
@@ -64,6 +80,19 @@ public class LifecycleScriptTest {
 
         ContentVersionId scriptListId = setupResolve(createPolicyContentVersionId(2), ScriptList.EXTERNAL_ID);
         when(cm.get(eq(scriptListId), eq(ScriptList.class), eq(Subject.NOBODY_CALLER))).thenReturn(result);
+
+        LifecycleScriptingEngine.getInstance(cm, newConfiguration());
+    }
+
+    /**
+     * Create the configuration for the engines the tests use. Scripts aren't checked for changes in the background,
+     * as background reloads would use the mock ContentManager while tests are stubbing it.
+     * @return A new configuration.
+     */
+    private static LifecycleScriptingConfiguration newConfiguration() {
+        LifecycleScriptingConfiguration configuration = new LifecycleScriptingConfiguration();
+        configuration.setScriptCheckInterval(0);
+        return configuration;
     }
 
 
@@ -91,6 +120,19 @@ public class LifecycleScriptTest {
         return id;
     }
 
+    /**
+     * Resolve the ScriptList to a new version, as if it had been edited, so the engines reload it.
+     */
+    private static void setupScriptListVersion() {
+        ContentResultBuilder<ScriptList> builder = new ContentResultBuilder<>();
+        builder.status(Status.OK);
+        builder.mainAspectData(scriptList);
+        ContentResult<ScriptList> result = builder.build();
+
+        ContentVersionId scriptListId = setupResolve(createPolicyContentVersionId(2), ScriptList.EXTERNAL_ID);
+        when(cm.get(eq(scriptListId), eq(ScriptList.class), eq(Subject.NOBODY_CALLER))).thenReturn(result);
+    }
+
     public void setupScriptContentResolve(final LifecycleScript script) {
         String externalId = "com.atex.script." + script.getId();
         ContentVersionId id = setupResolve(createPolicyContentVersionId(2), externalId);
@@ -103,6 +145,20 @@ public class LifecycleScriptTest {
         when(cm.get(id, LifecycleScript.class, Subject.NOBODY_CALLER)).thenReturn(result);
     }
 
+    /**
+     * Wait for the detached scripts a test started to complete, so they don't use the mock ContentManager while
+     * later tests are stubbing it.
+     * @param engine The engine the scripts were started on.
+     */
+    private static void awaitDetachedScripts(final LifecycleScriptingEngine engine) {
+        final DetachedScriptExecutor executor = engine.getDetachedScriptExecutor();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (executor.getQueueSize() > 0 || executor.getActiveCount() > 0) {
+            assertTrue("Detached scripts didn't complete", System.nanoTime() < deadline);
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+    }
+
     /**
      * Get a default ContentWrite based on an article that can be easily wrapped and passed to the engine context.
      * @return A new ContentWrite from a builder.
@@ -341,33 +397,46 @@ public class LifecycleScriptTest {
             return 0L;
         };
 
-        ExecutorService executor = Executors.newFixedThreadPool(1);
-        List<Callable<Long>> scriptTasks = new ArrayList<>();
         final int scriptRuns = 100;
+        List<Callable<Long>> scriptTasks = new ArrayList<>();
         for (int i = 0; i < scriptRuns; i++) {
             scriptTasks.add(runScript);
         }
 
-        executor.invokeAll(scriptTasks).stream().map(
-                future -> {
-                    try {
-                        return future.get();
-                    } catch (Exception e) {
-                        e.printStackTrace();
+        // Run the same work on one thread, then on one thread per core, to show how triggers scale across the engine pool.
+        long singleThreadWallTime = 0L;
+        final int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : cores > 1 ? new int[] {1, cores} : new int[] {1}) {
+            totalRunTime.set(0L);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            long wallStartTime = System.nanoTime();
+            executor.invokeAll(scriptTasks).stream().map(
+                    future -> {
+                        try {
+                            return future.get();
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                        return 0L;
                     }
-                    return 0L;
+            ).forEach(runTime -> {
+                synchronized (lock) {
+                    totalRunTime.addAndGet(runTime);
                 }
-        ).forEach(runTime -> {
-            synchronized (lock) {
-                totalRunTime.addAndGet(runTime);
+            });
+            long wallTime = System.nanoTime() - wallStartTime;
+            executor.shutdown();
+            if (threads == 1) {
+                singleThreadWallTime = wallTime;
             }
-        });
-        System.out.println("Finished all scripts.");
-        System.out.printf("Total runtime: %d nanoseconds\n", totalRunTime.longValue());
-        long nanosecondRuntime = totalRunTime.longValue() / scriptRuns;
-        long millisRuntimeWholePart = nanosecondRuntime / 1000000;
-        long millisRuntimeFractionalPart = nanosecondRuntime % 1000000;
-        System.out.printf("Mean runtime per script: %d nanoseconds (%d.%d milliseconds)", totalRunTime.longValue() / scriptRuns, millisRuntimeWholePart, millisRuntimeFractionalPart);
+            System.out.printf("Finished all scripts on %d thread(s).\n", threads);
+            System.out.printf("Total runtime: %d nanoseconds, wall time: %d nanoseconds\n", totalRunTime.longValue(), wallTime);
+            long nanosecondRuntime = totalRunTime.longValue() / scriptRuns;
+            long millisRuntimeWholePart = nanosecondRuntime / 1000000;
+            long millisRuntimeFractionalPart = nanosecondRuntime % 1000000;
+            System.out.printf("Mean runtime per script: %d nanoseconds (%d.%d milliseconds)\n", totalRunTime.longValue() / scriptRuns, millisRuntimeWholePart, millisRuntimeFractionalPart);
+            System.out.printf("Speedup over 1 thread: %.2f\n", (double) singleThreadWallTime / wallTime);
+        }
     }
 
     @Test
@@ -453,6 +522,7 @@ public class LifecycleScriptTest {
             e.printStackTrace();
             fail();
         }
+        awaitDetachedScripts(engine);
     }
 
     /**
@@ -492,6 +562,7 @@ public class LifecycleScriptTest {
             e.printStackTrace();
             fail();
         }
+        awaitDetachedScripts(engine);
     }
 
     @Test
@@ -525,6 +596,7 @@ public class LifecycleScriptTest {
             e.printStackTrace();
             fail();
         }
+        awaitDetachedScripts(engine);
     }
 
     @Test
@@ -561,6 +633,103 @@ public class LifecycleScriptTest {
         }
     }
 
+    @Test
+    public void runAsyncCompletesWithContext() {
+        LifecycleScript script = new LifecycleScript();
+        script.setScriptType("");
+        script.setEvent(ScriptType.CALLABLE.toString());
+        script.setId("run-async-script");
+        script.setScript("x = x + 1");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            ContextMap context = engine.runAsync(script.getId(), new ContextMap("x", 1))
+                    .thenCompose(result -> engine.runAsync(script.getId(), result))
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals(3, ((Number) context.get("x")).intValue());
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void triggerAsyncCompletesWithContext() {
+        final String scriptType = "triggerAsyncCompletesWithContext";
+        LifecycleScript script = new LifecycleScript();
+        script.setScriptType(scriptType);
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setId("trigger-async-script");
+        script.setScript("x = 1");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            ContextMap context = engine.triggerAsync(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0))
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals(1, context.get("x"));
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void runAsyncTimesOut() {
+        LifecycleScript script = new LifecycleScript();
+        script.setScriptType("");
+        script.setEvent(ScriptType.CALLABLE.toString());
+        script.setId("run-async-slow-script");
+        script.setScript("java.lang.Thread.sleep(10000)");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        long start = System.nanoTime();
+        try {
+            engine.runAsync(script.getId(), new ContextMap(), 200, TimeUnit.MILLISECONDS).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            fail();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runAsyncFromScript() {
+        LifecycleScript originScript = new LifecycleScript();
+        originScript.setScriptType("");
+        originScript.setEvent(ScriptType.CALLABLE.toString());
+        originScript.setId("run-async-from-script");
+        originScript.setScript("future = runAsync('update-context', new ScriptEngineContext('contentId', new ContentId('content', 'id')));");
+        setupScriptContentResolve(originScript);
+
+        LifecycleScript secondaryScript = new LifecycleScript();
+        secondaryScript.setScriptType("");
+        secondaryScript.setEvent(ScriptType.PRE_STORE.toString());
+        secondaryScript.setId("update-context");
+        try {
+            secondaryScript.setScript(getFileContents("test-scripts/update-context.js"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        setupScriptContentResolve(secondaryScript);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            ContextMap context = engine.run(originScript.getId(), new ContextMap("future", null));
+            ContextMap result = ((CompletableFuture<ContextMap>) context.get("future")).get(5, TimeUnit.SECONDS);
+            assertEquals("updated", ((ContentId) result.get("contentId")).getDelegationId());
+        } catch (ScriptEngineException | InterruptedException | ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
     @Test
     public void canRequireLibraryExports() {
         LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
@@ -588,8 +757,76 @@ public class LifecycleScriptTest {
 
         try {
             ContextMap context = engine.run(script.getId(), new ContextMap("number", 1));
-            // Any integer values coming from the JS engine are of type double (since JS number type is always double).
-            assertEquals(2, ((Double)context.get("number")).intValue());
+            // JS numbers are doubles, which Nashorn returns as a Double while GraalJS returns whole numbers as an Integer.
+            assertEquals(2, ((Number)context.get("number")).intValue());
+        } catch (ScriptEngineException | ExecutionException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void requireCachesExports() {
+        LifecycleScript module = new LifecycleScript();
+        module.setScriptType("");
+        module.setEvent(ScriptType.CALLABLE.toString());
+        module.setId("cached-module");
+        module.setScript("exports = {};");
+        setupScriptContentResolve(module);
+
+        LifecycleScript script = new LifecycleScript();
+        script.setScriptType("");
+        script.setEvent(ScriptType.CALLABLE.toString());
+        script.setId("require-cached-module");
+        script.setScript("same = require('cached-module') === require('cached-module');");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            ContextMap context = engine.run(script.getId(), new ContextMap("same", false));
+            assertEquals(true, context.get("same"));
+        } catch (ScriptEngineException | ExecutionException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void requireReloadsDependentsOfChangedModule() {
+        LifecycleScript module = new LifecycleScript();
+        module.setScriptType("");
+        module.setEvent(ScriptType.CALLABLE.toString());
+        module.setId("changing-module");
+        module.setScript("exports = {value: 1};");
+        setupScriptContentResolve(module);
+
+        LifecycleScript dependentModule = new LifecycleScript();
+        dependentModule.setScriptType("");
+        dependentModule.setEvent(ScriptType.CALLABLE.toString());
+        dependentModule.setId("dependent-module");
+        dependentModule.setScript("var changing = require('changing-module'); exports = {value: changing.value};");
+        setupScriptContentResolve(dependentModule);
+
+        LifecycleScript script = new LifecycleScript();
+        script.setScriptType("");
+        script.setEvent(ScriptType.CALLABLE.toString());
+        script.setId("require-dependent-module");
+        script.setScript("value = require('dependent-module').value;");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            assertEquals(1, ((Number) engine.run(script.getId(), new ContextMap("value", 0)).get("value")).intValue());
+
+            LifecycleScript changedModule = new LifecycleScript();
+            changedModule.setScriptType("");
+            changedModule.setEvent(ScriptType.CALLABLE.toString());
+            changedModule.setId("changing-module");
+            changedModule.setScript("exports = {value: 2};");
+            setupScriptContentResolve(changedModule);
+            engine.checkScriptVersions();
+
+            assertEquals(2, ((Number) engine.run(script.getId(), new ContextMap("value", 0)).get("value")).intValue());
         } catch (ScriptEngineException | ExecutionException e) {
             e.printStackTrace();
             fail();
@@ -801,7 +1038,900 @@ public class LifecycleScriptTest {
     }
 
     @Test
-    public void testScriptUpdate() throws InterruptedException {
+    public void testSetWFStatusCachesStatuses() throws ScriptEngineException {
+        final String scriptType = "setWFStatusCachesStatuses";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("set-wf-status-cache-test");
+        script.setScript("setWFStatus(content, 'published')");
+        setupScriptContentResolve(script);
+
+        ContentVersionId id = createPolicyContentVersionId(2);
+        doReturn(id).when(cm).resolve(eq("atex.WFStatusList"), any());
+        WFStatusBean publishedStatusBean = new WFStatusBean();
+        publishedStatusBean.setStatusID("published");
+        WFStatusListBean statusListBean = new WFStatusListBean();
+        statusListBean.setStatus(new ArrayList<>(Collections.singletonList(publishedStatusBean)));
+        ContentResultBuilder<WFStatusListBean> statusListBeanBuilder = new ContentResultBuilder<>();
+        statusListBeanBuilder.mainAspect(new Aspect<>(WFStatusListBean.ASPECT_NAME, statusListBean));
+        when(cm.get(eq(id), eq(WFStatusListBean.class), any())).thenReturn(statusListBeanBuilder.build());
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        List<WFStatusBean> statuses = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            ContentWrite<OneArticleBean> content = getContentWriteWithStatus("review");
+            ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType,
+                    new ContextMap("content", new ContentWriteFacade(content)));
+            ContentWrite<?> resultContent = (ContentWrite<?>) resultMap.get("content");
+            WFStatusBean status = resultContent.getAspect(WFContentStatusAspectBean.ASPECT_NAME,
+                    WFContentStatusAspectBean.class).getStatus();
+            assertEquals("published", status.getStatusID());
+            statuses.add(status);
+        }
+        // The status list is only read once, and each content gets its own copy of the status.
+        verify(cm, times(1)).get(eq(id), eq(WFStatusListBean.class), any());
+        assertNotSame(statuses.get(0), statuses.get(1));
+    }
+
+    @Test
+    public void triggerOnlyRunsScriptsForEvent() {
+        final String scriptType = "triggerOnlyRunsScriptsForEvent";
+        LifecycleScript callableScript = new LifecycleScript();
+        callableScript.setEvent(ScriptType.CALLABLE.toString());
+        callableScript.setScriptType(scriptType);
+        callableScript.setId("trigger-callable-script");
+        callableScript.setScript("x = 1");
+        setupScriptContentResolve(callableScript);
+
+        LifecycleScript preStoreScript = new LifecycleScript();
+        preStoreScript.setEvent(ScriptType.PRE_STORE.toString());
+        preStoreScript.setScriptType(scriptType);
+        preStoreScript.setId("trigger-pre-store-script");
+        preStoreScript.setScript("y = 1");
+        setupScriptContentResolve(preStoreScript);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0, "y", 0));
+            assertEquals(0, resultMap.get("x"));
+            assertEquals(1, resultMap.get("y"));
+        } catch (ScriptEngineException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void scriptsCannotModifySharedLibrary() {
+        LifecycleScript replaceScript = new LifecycleScript();
+        replaceScript.setEvent(ScriptType.CALLABLE.toString());
+        replaceScript.setScriptType("");
+        replaceScript.setId("replace-library-function");
+        replaceScript.setScript("getByPath.modified = true; getByPath = null; replaced = getByPath === null;");
+        setupScriptContentResolve(replaceScript);
+
+        LifecycleScript libraryScript = new LifecycleScript();
+        libraryScript.setEvent(ScriptType.CALLABLE.toString());
+        libraryScript.setScriptType("");
+        libraryScript.setId("use-library-function");
+        libraryScript.setScript("value = getByPath({a: 'b'}, 'a'); modified = getByPath.modified === true;");
+        setupScriptContentResolve(libraryScript);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            assertEquals(true, engine.run(replaceScript.getId(), new ContextMap("replaced", false)).get("replaced"));
+            ContextMap context = engine.run(libraryScript.getId(), new ContextMap("value", null, "modified", null));
+            assertEquals("b", context.get("value"));
+            assertEquals(false, context.get("modified"));
+        } catch (ScriptEngineException | ExecutionException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void triggerBatchReturnsResultPerContext() {
+        final String scriptType = "triggerBatchReturnsResultPerContext";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("trigger-batch-script");
+        script.setScript("if (x < 0) { throw new Error('x is negative'); } x = x + 1;");
+        setupScriptContentResolve(script);
+
+        List<ContextMap> contexts = new ArrayList<>();
+        for (int i = -2; i < 10; i++) {
+            contexts.add(new ContextMap("x", i));
+        }
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            List<TriggerResult> results = engine.triggerBatch(ScriptType.PRE_STORE, scriptType, contexts);
+            assertEquals(contexts.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                int x = (Integer) contexts.get(i).get("x");
+                TriggerResult result = results.get(i);
+                if (x < 0) {
+                    assertFalse(result.isSuccess());
+                    assertNotNull(result.getError());
+                } else {
+                    assertTrue(result.isSuccess());
+                    assertEquals(x + 1, ((Number) result.getContext().get("x")).intValue());
+                }
+            }
+        } catch (ScriptEngineException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void resolveCachesResolutionsAndMisses() throws Exception {
+        final String scriptType = "resolveCachesResolutionsAndMisses";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("resolve-cache-script");
+        script.setScript("found = resolve('resolve.cache.department') != null; missing = resolve('resolve.cache.missing') == null;");
+        setupScriptContentResolve(script);
+        setupResolve(createPolicyContentVersionId(2), "resolve.cache.department");
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        for (int i = 0; i < 3; i++) {
+            ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("found", false, "missing", false));
+            assertEquals(true, resultMap.get("found"));
+            assertEquals(true, resultMap.get("missing"));
+        }
+        verify(cm, times(1)).resolve("resolve.cache.department", Subject.NOBODY_CALLER);
+        verify(cm, times(1)).resolve("resolve.cache.missing", Subject.NOBODY_CALLER);
+        assertTrue(engine.getStatistics().getResolveCacheStatistics().getHitCount() >= 4);
+
+        engine.getExternalIdResolver().invalidate("resolve.cache.department");
+        engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("found", false, "missing", false));
+        verify(cm, times(2)).resolve("resolve.cache.department", Subject.NOBODY_CALLER);
+    }
+
+    @Test
+    public void scriptListScriptsLoadConcurrently() throws Exception {
+        final String scriptType = "scriptListScriptsLoadConcurrently";
+        final int scriptCount = 3;
+        final CountDownLatch loading = new CountDownLatch(scriptCount);
+        for (int i = 0; i < scriptCount; i++) {
+            LifecycleScript script = new LifecycleScript();
+            script.setEvent(ScriptType.PRE_STORE.toString());
+            script.setScriptType(scriptType);
+            script.setId("concurrent-load-script-" + i);
+            script.setScript("x = x + 1");
+            setupScriptContentResolve(script);
+
+            // Each load waits until every script is being loaded, so this only completes quickly if they load at once.
+            ContentVersionId id = cm.resolve("com.atex.script." + script.getId(), Subject.NOBODY_CALLER);
+            ContentResult<LifecycleScript> result = cm.get(id, LifecycleScript.class, Subject.NOBODY_CALLER);
+            when(cm.get(id, LifecycleScript.class, Subject.NOBODY_CALLER)).thenAnswer(invocation -> {
+                loading.countDown();
+                loading.await(10, TimeUnit.SECONDS);
+                return result;
+            });
+        }
+
+        LifecycleScriptingConfiguration configuration = newConfiguration();
+        configuration.setScriptLoadParallelism(scriptCount + 1);
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, configuration);
+        long start = System.nanoTime();
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+        assertEquals(scriptCount, ((Number) resultMap.get("x")).intValue());
+        assertEquals(0, loading.getCount());
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+    }
+
+    @Test
+    public void scriptThatFailsToLoadIsRetried() throws Exception {
+        final String scriptType = "scriptThatFailsToLoadIsRetried";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("retried-load-script");
+        script.setScript("x = 1");
+        setupScriptContentResolve(script);
+
+        // The first load fails, the next one succeeds.
+        ContentVersionId id = cm.resolve("com.atex.script." + script.getId(), Subject.NOBODY_CALLER);
+        ContentResult<LifecycleScript> result = cm.get(id, LifecycleScript.class, Subject.NOBODY_CALLER);
+        when(cm.get(id, LifecycleScript.class, Subject.NOBODY_CALLER)).thenReturn(null, result);
+
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, newConfiguration());
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+        assertEquals(0, resultMap.get("x"));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!Integer.valueOf(1).equals(resultMap.get("x")) && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+            resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+        }
+        assertEquals(1, resultMap.get("x"));
+    }
+
+    @Test
+    public void scriptListReloadRetriesScriptsThatFailToLoad() throws Exception {
+        final String scriptType = "scriptListReloadRetriesScriptsThatFailToLoad";
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, newConfiguration());
+        engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("reload-retried-script");
+        script.setScript("x = 1");
+        setupScriptContentResolve(script);
+        setupScriptListVersion();
+
+        // The load by the reload fails, the retry succeeds, without a trigger having to load the script.
+        ContentVersionId id = cm.resolve("com.atex.script." + script.getId(), Subject.NOBODY_CALLER);
+        ContentResult<LifecycleScript> result = cm.get(id, LifecycleScript.class, Subject.NOBODY_CALLER);
+        when(cm.get(id, LifecycleScript.class, Subject.NOBODY_CALLER)).thenReturn(null, result);
+        engine.refreshScriptList();
+        verify(cm, timeout(10000).times(3)).get(id, LifecycleScript.class, Subject.NOBODY_CALLER);
+
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+        assertEquals(1, resultMap.get("x"));
+        verify(cm, times(3)).get(id, LifecycleScript.class, Subject.NOBODY_CALLER);
+    }
+
+    @Test
+    public void scriptTimeoutAbortsScript() {
+        final String scriptType = "scriptTimeoutAbortsScript";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("script-timeout-script");
+        script.setScript("x = 1; java.lang.Thread.sleep(10000);");
+        script.setTimeoutMillis(200L);
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        ContextMap context = new ContextMap("x", 0);
+        long start = System.nanoTime();
+        try {
+            engine.trigger(ScriptType.PRE_STORE, scriptType, context);
+            fail();
+        } catch (ScriptBudgetException e) {
+            assertEquals(ScriptBudgetException.Budget.TIMEOUT, e.getBudget());
+            assertEquals(script.getId(), e.getScriptId());
+        } catch (ScriptEngineException e) {
+            e.printStackTrace();
+            fail();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(0, context.get("x"));
+    }
+
+    @Test
+    public void builtinMembersAreShared() throws Exception {
+        ContentWriteFacade first = new ContentWriteFacade(getContentWrite());
+        ContentWriteFacade second = new ContentWriteFacade(getContentWrite());
+        assertSame(first.getMember("toString"), second.getMember("toString"));
+        assertSame(first.getMember("hasOwnProperty"), second.getMember("hasOwnProperty"));
+        assertSame(first.getMember("getContentWrite"), second.getMember("getContentWrite"));
+        ScriptEngineContext context = new ScriptEngineContext();
+        assertSame(context.getMember("get"), context.getMember("get"));
+
+        final String scriptType = "builtinMembersAreShared";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("builtin-members-script");
+        script.setScript("result = content.hasOwnProperty('aspects') + ',' + content.hasOwnProperty('missing')"
+                + " + ',' + content + ',' + ('aspects' in content);");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType,
+                new ContextMap("content", first, "result", ""));
+        assertEquals("true,false,[objectContentWriteFacade],true", resultMap.get("result"));
+    }
+
+    @Test
+    public void detachedContextFunctionsUseTheirContext() throws Exception {
+        final String scriptType = "detachedContextFunctionsUseTheirContext";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("detached-context-functions-script");
+        script.setScript("var get = first.get; var put = first.put;"
+                + " put('y', 2); result = get('x') + ',' + first.get('y') + ',' + second.get('x');");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType,
+                new ContextMap("first", new ScriptEngineContext("x", "a"), "second", new ScriptEngineContext("x", "b"),
+                        "result", ""));
+        assertEquals("a,2,b", resultMap.get("result"));
+    }
+
+    @Test
+    public void isFacadeHandlesMissingContent() throws Exception {
+        final String scriptType = "isFacadeHandlesMissingContent";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("is-facade-script");
+        script.setScript("result = isFacade(null) + ',' + isFacade(undefined) + ',' + isFacade(content);");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType,
+                new ContextMap("content", new ContentWriteFacade(getContentWrite()), "result", ""));
+        assertEquals("false,false,true", resultMap.get("result"));
+    }
+
+    @Test
+    public void cpuTimeBudgetAbortsScript() {
+        final String scriptType = "cpuTimeBudgetAbortsScript";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("cpu-time-budget-script");
+        // Busy for far longer than the budget, but not forever, as Nashorn can't cancel a script busy in JavaScript.
+        script.setScript("x = 1; var end = Date.now() + 5000; while (Date.now() < end) {}");
+        script.setCpuTimeMillis(200L);
+        setupScriptContentResolve(script);
+
+        LifecycleScript nextScript = new LifecycleScript();
+        nextScript.setEvent(ScriptType.PRE_STORE.toString());
+        nextScript.setScriptType("cpuTimeBudgetAbortsScript-next");
+        nextScript.setId("cpu-time-budget-next-script");
+        nextScript.setScript("x = 2");
+        setupScriptContentResolve(nextScript);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+            fail();
+        } catch (ScriptBudgetException e) {
+            assertEquals(ScriptBudgetException.Budget.CPU_TIME, e.getBudget());
+        } catch (ScriptEngineException e) {
+            e.printStackTrace();
+            fail();
+        }
+
+        // The engine running the aborted script is replaced, so scripts keep running.
+        try {
+            ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, "cpuTimeBudgetAbortsScript-next", new ContextMap("x", 0));
+            assertEquals(2, resultMap.get("x"));
+        } catch (ScriptEngineException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void abortedScriptIsQuarantinedUntilItCompletes() throws Exception {
+        final String scriptType = "abortedScriptIsQuarantinedUntilItCompletes";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("quarantined-script");
+        // Busy for longer than the budget, but not forever, as Nashorn can't cancel a script busy in JavaScript.
+        script.setScript("var end = Date.now() + spin; while (Date.now() < end) {} x = 1;");
+        script.setTimeoutMillis(200L);
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, newConfiguration());
+        try {
+            engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("spin", 3000));
+            fail();
+        } catch (ScriptBudgetException e) {
+            assertEquals(ScriptBudgetException.Budget.TIMEOUT, e.getBudget());
+        }
+        assertEquals(1, engine.getStatistics().getAbandonedScriptCount());
+
+        // The aborted run is still running, so the script fails straight away rather than starting again.
+        long start = System.nanoTime();
+        try {
+            engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("spin", 0));
+            fail();
+        } catch (ScriptBudgetException e) {
+            fail();
+        } catch (ScriptEngineException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (engine.getStatistics().getAbandonedScriptCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, engine.getStatistics().getAbandonedScriptCount());
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("spin", 0, "x", 0));
+        assertEquals(1, resultMap.get("x"));
+    }
+
+    @Test
+    public void statisticsCountExecutionsAndErrors() throws Exception {
+        final String scriptType = "statisticsCountExecutionsAndErrors";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("statistics-script");
+        script.setScript("if (fail) { throw 'failed'; } x = 1");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("fail", false));
+        engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("fail", false));
+        try {
+            engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("fail", true));
+            fail();
+        } catch (ScriptEngineException e) {
+            // expected
+        }
+
+        ExecutionStatistics statistics = engine.getStatistics().getScriptStatistics().get("statistics-script");
+        assertEquals(3, statistics.getInvocations());
+        assertEquals(1, statistics.getErrors());
+        assertTrue(statistics.getP50Millis() <= statistics.getP99Millis());
+        assertTrue(statistics.getP99Millis() <= statistics.getMaxMillis());
+        assertTrue(engine.getStatistics().getScriptTypeStatistics().get("PRE_STORE").getInvocations() >= 3);
+        assertTrue(engine.getStatistics().getScriptCacheStatistics().getHitCount() > 0);
+
+        ObjectName name = new ObjectName("com.atex.onecms.scripting:type=LifecycleScriptingEngine");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void libraryFunctionsUseTheEngineRunningTheScript() throws Exception {
+        final String scriptType = "libraryFunctionsUseTheEngineRunningTheScript";
+        LifecycleScript caller = new LifecycleScript();
+        caller.setEvent(ScriptType.PRE_STORE.toString());
+        caller.setScriptType(scriptType);
+        caller.setId("library-engine-caller");
+        caller.setScript("x = run('library-engine-called', new ScriptEngineContext('x', 0)).get('x');"
+                + " y = require('library-engine-called').y;");
+        setupScriptContentResolve(caller);
+
+        LifecycleScript called = new LifecycleScript();
+        called.setEvent(ScriptType.PRE_STORE.toString());
+        called.setScriptType("");
+        called.setId("library-engine-called");
+        called.setScript("x = 1; exports = {y: 2};");
+        setupScriptContentResolve(called);
+
+        // The called script only runs on the engine running the caller, not on the shared instance.
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, newConfiguration());
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0, "y", 0));
+        assertEquals(1, ((Number) resultMap.get("x")).intValue());
+        assertEquals(2, ((Number) resultMap.get("y")).intValue());
+        assertEquals(1, engine.getStatistics().getScriptStatistics().get("library-engine-called").getInvocations());
+        assertNull(LifecycleScriptingEngine.getInstance(cm).getStatistics().getScriptStatistics()
+                .get("library-engine-called"));
+    }
+
+    @Test
+    public void executionListenerTimesEachPhase() throws Exception {
+        final String scriptType = "executionListenerTimesEachPhase";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("execution-listener-script");
+        script.setScript("x = 1");
+        setupScriptContentResolve(script);
+
+        final List<String> phases = Collections.synchronizedList(new ArrayList<>());
+        ExecutionListener listener = (scriptId, contentType, phase, nanos) -> {
+            assertTrue(nanos >= 0);
+            // Detached scripts started by earlier tests may still be running.
+            if (scriptType.equals(contentType)) {
+                phases.add(phase + ":" + scriptId + ":" + contentType);
+            }
+        };
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        engine.addExecutionListener(listener);
+        try {
+            engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+        } finally {
+            engine.removeExecutionListener(listener);
+        }
+
+        final String scriptPhase = ":execution-listener-script:" + scriptType;
+        assertEquals(Arrays.asList(
+                "LOOKUP:null:" + scriptType,
+                "CONTEXT_COPY:null:" + scriptType,
+                "ENGINE_CHECKOUT" + scriptPhase,
+                "COMPILE" + scriptPhase,
+                "BINDINGS" + scriptPhase,
+                "EVALUATION" + scriptPhase,
+                "COPY_BACK" + scriptPhase,
+                "COMMIT:null:" + scriptType), phases);
+    }
+
+    @Test
+    public void warmUpLoadsScriptsBeforeReady() throws Exception {
+        final String scriptType = "warmUpLoadsScriptsBeforeReady";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("warm-up-script");
+        script.setScript("x = 1");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingConfiguration configuration = newConfiguration();
+        configuration.setWarmUp(true);
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, configuration);
+        engine.whenReady().get(30, TimeUnit.SECONDS);
+        assertTrue(engine.isReady());
+
+        final long misses = engine.getStatistics().getScriptCacheStatistics().getMissCount();
+        assertTrue(misses > 0);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+        assertEquals(1, resultMap.get("x"));
+        assertEquals(misses, engine.getStatistics().getScriptCacheStatistics().getMissCount());
+    }
+
+    @Test
+    public void aspectsAreLookedUpOnAccess() throws Exception {
+        final String scriptType = "aspectsAreLookedUpOnAccess";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("lazy-aspects-script");
+        script.setScript("names = []; for (name in content.aspects) { names.push(name); } names = names.join(',');"
+                + " headline = content.aspects.contentData.data.headline.text;"
+                + " missing = content.aspects['no.such.aspect'] == null;"
+                + " content.aspects.remove(names.split(',')[0]);"
+                + " deleted = content.aspects[names.split(',')[0]] == null;");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType,
+                new ContextMap("content", new ContentWriteFacade(getContentWrite()),
+                        "names", "", "headline", "", "missing", false, "deleted", false));
+        assertEquals(InsertionInfoAspectBean.ASPECT_NAME + ",contentData", resultMap.get("names"));
+        assertEquals("New Article", resultMap.get("headline"));
+        assertEquals(true, resultMap.get("missing"));
+        assertEquals(true, resultMap.get("deleted"));
+    }
+
+    @Test
+    public void aspectsAreAMap() throws Exception {
+        final String scriptType = "aspectsAreAMap";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("aspects-map-script");
+        script.setScript("size = content.aspects.size();"
+                + " headline = content.aspects.get('contentData').data.headline.text;"
+                + " found = content.aspects.containsKey('" + InsertionInfoAspectBean.ASPECT_NAME + "');"
+                + " content.aspects['" + InsertionInfoAspectBean.ASPECT_NAME + "'] = null;"
+                + " cleared = content.aspects.containsKey('" + InsertionInfoAspectBean.ASPECT_NAME + "')"
+                + " && content.aspects.get('" + InsertionInfoAspectBean.ASPECT_NAME + "') == null;"
+                + " sizeAfter = content.aspects.size();");
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType,
+                new ContextMap("content", new ContentWriteFacade(getContentWrite()),
+                        "size", 0, "headline", "", "found", false, "cleared", false, "sizeAfter", 0));
+        assertEquals(2, resultMap.get("size"));
+        assertEquals("New Article", resultMap.get("headline"));
+        assertEquals(true, resultMap.get("found"));
+        assertEquals(true, resultMap.get("cleared"));
+        assertEquals(2, resultMap.get("sizeAfter"));
+    }
+
+    @Test
+    public void triggerOnlyCopiesTouchedContent() {
+        final String scriptType = "triggerOnlyCopiesTouchedContent";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("trigger-touch-script");
+        script.setScript("x = 1; touched.getContentWrite()");
+        setupScriptContentResolve(script);
+
+        ContentWriteFacade untouched = new ContentWriteFacade(getContentWrite());
+        ContentWriteFacade touched = new ContentWriteFacade(getContentWrite());
+        ContextMap context = new ContextMap("x", 0, "untouched", untouched, "touched", touched);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        try {
+            ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, context);
+            assertEquals(1, resultMap.get("x"));
+            assertEquals(0, context.get("x"));
+            assertSame(untouched.getBaseObject(), resultMap.get("untouched"));
+            assertNotSame(touched.getBaseObject(), resultMap.get("touched"));
+        } catch (ScriptEngineException e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void analyzeFindsScriptMetadata() throws Exception {
+        LifecycleScript script = new LifecycleScript();
+        script.setScript("var increment = require('library-script');"
+                + " // result = ignored;\n"
+                + " result = increment(number) + '/' + /=/.source; content.getContentWrite();");
+        ScriptAnalyzer.analyze(script);
+        assertEquals(Collections.singletonList("library-script"), script.getRequires());
+        assertEquals(Arrays.asList("increment", "result"), script.getWrites());
+        assertTrue(script.getReads().containsAll(Arrays.asList("number", "content")));
+        assertFalse(script.getDynamic());
+        assertFalse(script.getPure());
+
+        script.setScript("if (content == null || number > 1) { throw 'invalid'; }");
+        ScriptAnalyzer.analyze(script);
+        assertEquals(Collections.emptyList(), script.getWrites());
+        assertTrue(script.getPure());
+
+        script.setScript("eval('number = 2');");
+        ScriptAnalyzer.analyze(script);
+        assertNull(script.getWrites());
+        assertTrue(script.getDynamic());
+        assertFalse(script.getPure());
+
+        for (String dynamic : new String[] {"var g = this; g.x = 5;", "Object.defineProperty(this, 'x', {value: 5});",
+                "(function() { return this; })().x = 5;", "globalThis.x = 5;"}) {
+            assertNull(dynamic, ScriptAnalyzer.scan(dynamic).getWrites());
+        }
+        assertEquals(Collections.singletonList("x"), ScriptAnalyzer.scan("for each (x in [5]) {}").getWrites());
+        assertEquals(Collections.singletonList("x"), ScriptAnalyzer.scan("for (x of [5]) {}").getWrites());
+        assertEquals(Arrays.asList("a", "b"), ScriptAnalyzer.scan("[a, b] = [1, 2];").getWrites());
+        assertEquals(Collections.singletonList("b"), ScriptAnalyzer.scan("({a: b} = {a: 1});").getWrites());
+        assertEquals(Collections.emptyList(), ScriptAnalyzer.scan("list[a] = 1;").getWrites());
+        assertEquals(Arrays.asList("s", "x"), ScriptAnalyzer.scan("s = `${x = 5}`;").getWrites());
+    }
+
+    @Test(expected = javax.script.ScriptException.class)
+    public void analyzeRejectsScriptsThatDontCompile() throws Exception {
+        LifecycleScript script = new LifecycleScript();
+        script.setScript("result = function( {");
+        ScriptAnalyzer.analyze(script);
+    }
+
+    @Test
+    public void triggerCopiesBackWritesTheAnalysisMisses() throws Exception {
+        final String scriptType = "triggerCopiesBackWritesTheAnalysisMisses";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("analyzed-writes-script");
+        script.setScript("written = 1; notDeclared = 1; var g = this; g.hidden = 1;");
+        ScriptAnalyzer.analyze(script);
+        // A stale analysis stored on the script doesn't stop changes being copied back.
+        script.setWrites(Collections.singletonList("written"));
+        script.setDynamic(false);
+        setupScriptContentResolve(script);
+
+        LifecycleScriptingEngine engine = LifecycleScriptingEngine.getInstance(cm);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType,
+                new ContextMap("written", 0, "notDeclared", 0, "hidden", 0));
+        assertEquals(1, ((Number) resultMap.get("written")).intValue());
+        assertEquals(1, ((Number) resultMap.get("notDeclared")).intValue());
+        assertEquals(1, ((Number) resultMap.get("hidden")).intValue());
+    }
+
+    @Test
+    public void storedAnalysisIsUsedWhileItMatchesTheSource() throws Exception {
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setId("stored-analysis-script");
+        script.setScript("x = y;");
+        ScriptAnalyzer.analyze(script);
+        script.setReads(Collections.singletonList("stored"));
+
+        CompilableScript stored = new CompilableScript(script, createPolicyContentVersionId(2));
+        assertEquals(Collections.singletonList("stored"), stored.getAnalysis().getReads());
+
+        script.setScript("x = z;");
+        CompilableScript changed = new CompilableScript(script, createPolicyContentVersionId(2));
+        assertTrue(changed.getAnalysis().getReads().contains("z"));
+        assertFalse(changed.getAnalysis().getReads().contains("stored"));
+    }
+
+    @Test
+    public void persistentCodeCacheStoresCompiledScripts() throws Exception {
+        // The persistent code cache is a Nashorn feature.
+        Assume.assumeTrue(NashornBackend.NAME.equals(new LifecycleScriptingConfiguration().getScriptBackend()));
+        final String scriptType = "persistentCodeCacheStoresCompiledScripts";
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId("persistent-code-cache-script");
+        script.setScript("x = 1;");
+        setupScriptContentResolve(script);
+
+        Path codeCache = Files.createTempDirectory("nashorn-code-cache");
+        LifecycleScriptingConfiguration configuration = newConfiguration();
+        configuration.setCodeCacheDirectory(codeCache.toString());
+        configuration.setOptimisticTypes(true);
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, configuration);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0));
+        assertEquals(1, ((Number) resultMap.get("x")).intValue());
+        try (Stream<Path> cached = Files.list(codeCache)) {
+            assertTrue(cached.findAny().isPresent());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void parallelTriggersRunIndependentScriptsTogether() throws Exception {
+        final String scriptType = "parallelTriggersRunIndependentScriptsTogether";
+        addParallelScript(scriptType, "parallel-a", null, Arrays.asList("a", "content"),
+                "java.lang.Thread.sleep(1000); a = 1;"
+                        + " content.aspects.contentData.data.headline = new com.atex.plugins.structured.text.StructuredText('Parallel');");
+        addParallelScript(scriptType, "parallel-b", null, Collections.singletonList("b"),
+                "java.lang.Thread.sleep(1000); b = 1;");
+        addParallelScript(scriptType, "parallel-sum", Arrays.asList("a", "b"), Collections.singletonList("sum"),
+                "sum = a + b;");
+        // Scripts that don't declare what they do conflict through the keys they use, so they run in order.
+        addParallelScript(scriptType, "parallel-count-1", null, null, "count = count + 1;");
+        addParallelScript(scriptType, "parallel-count-2", null, null, "count = count * 10;");
+
+        LifecycleScriptingConfiguration configuration = newConfiguration();
+        configuration.setEnginePoolSize(2);
+        configuration.setParallelTriggers(true);
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, configuration);
+        ContentWrite<OneArticleBean> contentWrite = getContentWrite();
+        // The first trigger creates and compiles the scripts on both engines.
+        engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("a", 0, "b", 0, "sum", 0, "count", 1,
+                "content", new ContentWriteFacade(contentWrite)));
+
+        long start = System.nanoTime();
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("a", 0, "b", 0,
+                "sum", 0, "count", 1, "content", new ContentWriteFacade(contentWrite)));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1900);
+        assertEquals(1, ((Number) resultMap.get("a")).intValue());
+        assertEquals(1, ((Number) resultMap.get("b")).intValue());
+        assertEquals(2, ((Number) resultMap.get("sum")).intValue());
+        assertEquals(20, ((Number) resultMap.get("count")).intValue());
+        assertEquals("Parallel",
+                ((ContentWrite<OneArticleBean>) resultMap.get("content")).getContentData().getHeadline().getText());
+        assertEquals("New Article", contentWrite.getContentData().getHeadline().getText());
+    }
+
+    @Test
+    public void parallelTriggersKeepWritesOfScriptsDeclaringOnlyReads() throws Exception {
+        final String scriptType = "parallelTriggersKeepWritesOfScriptsDeclaringOnlyReads";
+        addParallelScript(scriptType, "reads-only-x", Collections.singletonList("a"), null, "x = a + 1;");
+        addParallelScript(scriptType, "reads-only-y", Collections.singletonList("a"), null, "y = a + 2;");
+
+        LifecycleScriptingConfiguration configuration = newConfiguration();
+        configuration.setEnginePoolSize(2);
+        configuration.setParallelTriggers(true);
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, configuration);
+        ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("a", 1, "x", 0, "y", 0));
+        assertEquals(2, ((Number) resultMap.get("x")).intValue());
+        assertEquals(3, ((Number) resultMap.get("y")).intValue());
+    }
+
+    private void addParallelScript(final String scriptType,
+                                   final String scriptId,
+                                   final List<String> contextReads,
+                                   final List<String> contextWrites,
+                                   final String source) {
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId(scriptId);
+        script.setScript(source);
+        script.setContextReads(contextReads);
+        script.setContextWrites(contextWrites);
+        setupScriptContentResolve(script);
+    }
+
+    @Test
+    public void scriptListRefreshDoesNotCallContentManagerOnTheCallingThread() throws Exception {
+        MockContentManagers mocks = new MockContentManagers(false);
+        ContentManager contentManager = mocks.getContentManager();
+        ContentVersionId scriptListId = mocks.setupScriptList();
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(contentManager, newConfiguration());
+        engine.trigger(ScriptType.PRE_STORE, "scriptListRefreshDoesNotCallContentManagerOnTheCallingThread",
+                new ContextMap());
+
+        final Set<Thread> resolvingThreads = ConcurrentHashMap.newKeySet();
+        final CountDownLatch resolved = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            resolvingThreads.add(Thread.currentThread());
+            resolved.countDown();
+            return scriptListId;
+        }).when(contentManager).resolve(ScriptList.EXTERNAL_ID, Subject.NOBODY_CALLER);
+        engine.refreshScriptList();
+        assertTrue(resolved.await(10, TimeUnit.SECONDS));
+        assertFalse(resolvingThreads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void scriptListReloadSkipsFetchingAnUnchangedVersion() throws Exception {
+        MockContentManagers mocks = new MockContentManagers(false);
+        ContentManager contentManager = mocks.getContentManager();
+        ContentVersionId scriptListId = mocks.setupScriptList();
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(contentManager, newConfiguration());
+        engine.trigger(ScriptType.PRE_STORE, "scriptListReloadSkipsFetchingAnUnchangedVersion", new ContextMap());
+
+        engine.refreshScriptList();
+        verify(contentManager, timeout(10000).times(2)).resolve(ScriptList.EXTERNAL_ID, Subject.NOBODY_CALLER);
+        verify(contentManager, times(1)).get(scriptListId, ScriptList.class, Subject.NOBODY_CALLER);
+    }
+
+    @Test
+    public void failedScriptListReloadKeepsTheLastGoodList() throws Exception {
+        final String scriptType = "failedScriptListReloadKeepsTheLastGoodList";
+        MockContentManagers mocks = new MockContentManagers(false);
+        ContentManager contentManager = mocks.getContentManager();
+        LifecycleScript script = newScript("last-good-list-script", scriptType, "x = 1");
+        mocks.addScript(script);
+        mocks.setupScriptList(script);
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(contentManager, newConfiguration());
+        assertEquals(1, engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0)).get("x"));
+
+        ContentVersionId failingId = mocks.setupResolve(MockContentManagers.createPolicyContentVersionId(2),
+                ScriptList.EXTERNAL_ID);
+        when(contentManager.get(failingId, ScriptList.class, Subject.NOBODY_CALLER))
+                .thenThrow(new RuntimeException("Failed on purpose"));
+        engine.refreshScriptList();
+        verify(contentManager, timeout(10000)).get(failingId, ScriptList.class, Subject.NOBODY_CALLER);
+        assertEquals(1, engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0)).get("x"));
+    }
+
+    @Test
+    public void refreshScriptListPicksUpAnEdit() throws Exception {
+        final String scriptType = "refreshScriptListPicksUpAnEdit";
+        MockContentManagers mocks = new MockContentManagers(false);
+        ContentManager contentManager = mocks.getContentManager();
+        LifecycleScript first = newScript("edited-list-first", scriptType, "x = 1");
+        LifecycleScript second = newScript("edited-list-second", scriptType, "x = 2");
+        mocks.addScript(first);
+        mocks.addScript(second);
+        mocks.setupScriptList(first);
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(contentManager, newConfiguration());
+        assertEquals(1, engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0)).get("x"));
+
+        ContentVersionId editedId = mocks.setupScriptList(second);
+        engine.refreshScriptList();
+        verify(contentManager, timeout(10000)).get(editedId, ScriptList.class, Subject.NOBODY_CALLER);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        Object x = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0)).get("x");
+        while (!Integer.valueOf(2).equals(x) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            x = engine.trigger(ScriptType.PRE_STORE, scriptType, new ContextMap("x", 0)).get("x");
+        }
+        assertEquals(2, x);
+    }
+
+    private static LifecycleScript newScript(final String scriptId, final String scriptType, final String source) {
+        LifecycleScript script = new LifecycleScript();
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScriptType(scriptType);
+        script.setId(scriptId);
+        script.setScript(source);
+        return script;
+    }
+
+    @Test
+    public void closeShutsDownTheEngine() throws Exception {
+        LifecycleScriptingEngine engine = new LifecycleScriptingEngine(cm, newConfiguration());
+        engine.close();
+        try {
+            engine.runAsync("close-script", new ContextMap()).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void configurationRejectsInvalidSystemProperties() {
+        final String property = LifecycleScriptingConfiguration.PROPERTY_PREFIX + "enginePoolSize";
+        System.setProperty(property, "0");
+        try {
+            new LifecycleScriptingConfiguration();
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    public void testScriptUpdate() {
         final String scriptType = "testScriptUpdate";
         LifecycleScript script = new LifecycleScript();
         script.setEvent(ScriptType.PRE_STORE.toString());
@@ -822,10 +1952,11 @@ public class LifecycleScriptTest {
             fail();
         }
 
-        Thread.sleep(20000);
-
         script.setScript("x = 2");
         setupScriptContentResolve(script);
+
+        // The new version is picked up by the engine's version check, which the tests run rather than the background.
+        engine.checkScriptVersions();
         try {
             ContextMap context = new ContextMap("x", 0);
             ContextMap resultMap = engine.trigger(ScriptType.PRE_STORE, scriptType, context);
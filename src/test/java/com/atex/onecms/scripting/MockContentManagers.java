@@ -0,0 +1,181 @@
+package com.atex.onecms.scripting;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.atex.onecms.app.dam.standard.aspects.OneArticleBean;
+import com.atex.onecms.app.dam.workflow.WFContentStatusAspectBean;
+import com.atex.onecms.app.dam.workflow.WFStatusBean;
+import com.atex.onecms.content.ContentId;
+import com.atex.onecms.content.ContentManager;
+import com.atex.onecms.content.ContentResult;
+import com.atex.onecms.content.ContentResultBuilder;
+import com.atex.onecms.content.ContentVersionId;
+import com.atex.onecms.content.ContentWrite;
+import com.atex.onecms.content.ContentWriteBuilder;
+import com.atex.onecms.content.InsertionInfoAspectBean;
+import com.atex.onecms.content.Status;
+import com.atex.onecms.content.Subject;
+import com.atex.onecms.content.aspects.Aspect;
+import com.polopoly.cm.ExternalContentId;
+import org.apache.commons.io.IOUtils;
+
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Builds a mocked ContentManager scripts are loaded from, with the same script and content fixtures as
+ * LifecycleScriptTest, for the benchmarks in src/jmh and for tests that need an engine and ContentManager of their own.
+ */
+public final class MockContentManagers {
+
+    private static final AtomicInteger VERSION_COUNTER = new AtomicInteger(300);
+
+    private final ContentManager cm;
+
+    /**
+     * The scriptList that ContentManager mock will defer to when searching for scripts.
+     */
+    private final ScriptList scriptList = new ScriptList();
+
+    /**
+     * Create a new mocked ContentManager with an empty script list.
+     * @param stubOnly true if invocations should not be recorded, so long benchmark runs don't accumulate memory.
+     *                 Invocations can't be verified on a stub-only mock.
+     */
+    public MockContentManagers(final boolean stubOnly) {
+        scriptList.setScripts(new ArrayList<>());
+        cm = stubOnly ? mock(ContentManager.class, withSettings().stubOnly()) : mock(ContentManager.class);
+
+        // create and add a mock stub for the ScriptList.
+        ContentResultBuilder<ScriptList> builder = new ContentResultBuilder<>();
+        builder.status(Status.OK);
+        builder.mainAspectData(scriptList);
+        ContentResult<ScriptList> result = builder.build();
+
+        ContentVersionId scriptListId = setupResolve(createPolicyContentVersionId(2), ScriptList.EXTERNAL_ID);
+        when(cm.get(eq(scriptListId), eq(ScriptList.class), eq(Subject.NOBODY_CALLER))).thenReturn(result);
+    }
+
+    public ContentManager getContentManager() {
+        return cm;
+    }
+
+    /**
+     * Create a new, unique, policy ContentVersionId.
+     * @param major The major of the content id.
+     * @return A new ContentVersionId.
+     */
+    public static ContentVersionId createPolicyContentVersionId(final int major) {
+        return new ContentVersionId("policy", major + "." + VERSION_COUNTER.getAndIncrement(),
+                Long.toString(new Date().getTime()));
+    }
+
+    /**
+     * Resolve an external id to a content id.
+     * @param id The id the external id resolves to.
+     * @param externalId The external id.
+     * @return The id.
+     */
+    public ContentVersionId setupResolve(final ContentVersionId id, final String externalId) {
+        doReturn(id).when(cm).resolve(externalId, Subject.NOBODY_CALLER);
+        return id;
+    }
+
+    /**
+     * Resolve the ScriptList to a new version, as if it had been edited, holding the given scripts. The scripts must
+     * be added as well, for the mocked ContentManager to return them.
+     * @param scripts The scripts in the new version of the ScriptList.
+     * @return The id of the new version.
+     */
+    public ContentVersionId setupScriptList(final LifecycleScript... scripts) {
+        ScriptList list = new ScriptList();
+        list.setScripts(new ArrayList<>());
+        for (LifecycleScript script : scripts) {
+            list.getScripts().add(new ExternalContentId("com.atex.script." + script.getId()));
+        }
+        ContentResultBuilder<ScriptList> builder = new ContentResultBuilder<>();
+        builder.status(Status.OK);
+        builder.mainAspectData(list);
+        ContentResult<ScriptList> result = builder.build();
+
+        ContentVersionId scriptListId = setupResolve(createPolicyContentVersionId(2), ScriptList.EXTERNAL_ID);
+        when(cm.get(eq(scriptListId), eq(ScriptList.class), eq(Subject.NOBODY_CALLER))).thenReturn(result);
+        return scriptListId;
+    }
+
+    /**
+     * Add a script to the script list, and resolve and return it from the mocked ContentManager.
+     * @param script The script.
+     */
+    public void addScript(final LifecycleScript script) {
+        String externalId = "com.atex.script." + script.getId();
+        ContentVersionId id = setupResolve(createPolicyContentVersionId(2), externalId);
+        scriptList.getScripts().add(new ExternalContentId(externalId));
+
+        ContentResultBuilder<LifecycleScript> builder = new ContentResultBuilder<>();
+        builder.mainAspectData(script);
+        builder.status(Status.OK);
+        ContentResult<LifecycleScript> result = builder.build();
+        when(cm.get(id, LifecycleScript.class, Subject.NOBODY_CALLER)).thenReturn(result);
+    }
+
+    /**
+     * Add a PRE_STORE script from the test-scripts resources.
+     * @param scriptId The ID of the script, and the name of its resource without the .js suffix.
+     * @param scriptType The content type the script is triggered for.
+     * @return The added script.
+     */
+    public LifecycleScript addScript(final String scriptId, final String scriptType) {
+        LifecycleScript script = new LifecycleScript();
+        script.setId(scriptId);
+        script.setScriptType(scriptType);
+        script.setEvent(ScriptType.PRE_STORE.toString());
+        script.setScript(getFileContents("test-scripts/" + scriptId + ".js"));
+        addScript(script);
+        return script;
+    }
+
+    /**
+     * Get a new ContentWrite with a specific workflow status.
+     * @param status The status ID to set the WorkflowStatus to.
+     * @return A new ContentWrite with the given status.
+     */
+    public static ContentWrite<OneArticleBean> getContentWriteWithStatus(final String status) {
+        ContentWriteBuilder<OneArticleBean> builder = new ContentWriteBuilder<>();
+        ContentId contentId = new ContentId("contentid", "policy:22.222");
+        InsertionInfoAspectBean insertionInfoBean = new InsertionInfoAspectBean(contentId);
+
+        WFStatusBean statusBean = new WFStatusBean();
+        statusBean.setStatusID(status);
+        WFContentStatusAspectBean contentStatus = new WFContentStatusAspectBean();
+        contentStatus.setStatus(statusBean);
+
+        builder.mainAspectData(new OneArticleBean())
+                .aspects(new Aspect<>(InsertionInfoAspectBean.ASPECT_NAME, insertionInfoBean))
+                .aspect(WFContentStatusAspectBean.ASPECT_NAME, contentStatus);
+        return builder.build();
+    }
+
+    /**
+     * Get the contents of a resource at the given path.
+     * @param path The path to the resource.
+     * @return The contents of the file as a string.
+     */
+    public static String getFileContents(final String path) {
+        StringWriter writer = new StringWriter();
+        try {
+            IOUtils.copy(Objects.requireNonNull(MockContentManagers.class.getClassLoader().getResourceAsStream(path)), writer);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + path, e);
+        }
+        return writer.toString();
+    }
+}
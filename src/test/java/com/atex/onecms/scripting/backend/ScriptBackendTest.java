@@ -0,0 +1,94 @@
+package com.atex.onecms.scripting.backend;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import javax.script.ScriptException;
+
+import com.atex.onecms.scripting.LifecycleScriptingConfiguration;
+import com.atex.onecms.scripting.api.ScriptEngineContext;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the same checks against every backend. Backends whose runtime isn't on the classpath, e.g. GraalJS without
+ * the graaljs profile, are skipped.
+ */
+@RunWith(Parameterized.class)
+public class ScriptBackendTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<String> backends() {
+        return Arrays.asList(NashornBackend.NAME, GraalJsBackend.NAME);
+    }
+
+    @Parameterized.Parameter
+    public String backendName;
+
+    private ScriptRuntime runtime;
+
+    @Before
+    public void createRuntime() throws ScriptException {
+        ScriptBackend backend = null;
+        try {
+            backend = ScriptBackends.get(backendName);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // The backend's runtime isn't available.
+        }
+        Assume.assumeNotNull(backend);
+        runtime = backend.createRuntime(new LifecycleScriptingConfiguration());
+        runtime.loadLibrary("var greeting = 'hello'; function greet(name) { return greeting + ' ' + name; }",
+                Collections.singletonMap("suffix", "!"));
+    }
+
+    @Test
+    public void scopesSeeTheLibraryButNotEachOther() throws ScriptException {
+        CompiledCode code = runtime.compile("scope-test", "var defined = greet(name) + suffix;");
+        try (ScriptScope scope = runtime.createScope()) {
+            scope.put("name", "world");
+            scope.eval(code);
+            assertEquals("hello world!", scope.get("defined"));
+        }
+        try (ScriptScope scope = runtime.createScope()) {
+            scope.eval(runtime.compile("scope-test", "var leaked = typeof defined;"));
+            assertEquals("undefined", scope.get("leaked"));
+        }
+    }
+
+    @Test
+    public void nestedScopesDontChangeTheOuterScope() throws ScriptException {
+        try (ScriptScope outer = runtime.createScope()) {
+            outer.put("value", 1);
+            try (ScriptScope inner = runtime.createScope()) {
+                inner.put("value", 2);
+                inner.eval(runtime.compile("inner", "value = value + 1;"));
+                assertEquals(3, ((Number) inner.get("value")).intValue());
+            }
+            assertEquals(1, ((Number) outer.get("value")).intValue());
+        }
+    }
+
+    @Test
+    public void facadesAreUsableFromScripts() throws ScriptException {
+        try (ScriptScope scope = runtime.createScope()) {
+            scope.put("context", new ScriptEngineContext("first", 1));
+            scope.put("first", null);
+            scope.eval(runtime.compile("facade", "context.put('second', 2); first = context.get('first');"));
+            assertEquals(1, ((Number) scope.get("first")).intValue());
+            ScriptEngineContext context = (ScriptEngineContext) scope.get("context");
+            assertEquals(2, ((Number) context.getBaseObject().get("second")).intValue());
+        }
+    }
+
+    @Test(expected = ScriptException.class)
+    public void compileRejectsInvalidScripts() throws ScriptException {
+        runtime.compile("invalid", "var = ;");
+    }
+}
@@ -0,0 +1,173 @@
+package com.atex.onecms.scripting.mail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MailServiceTest {
+
+    private SmtpStandIn smtp;
+
+    @Before
+    public void startSmtp() throws IOException {
+        smtp = new SmtpStandIn();
+    }
+
+    @After
+    public void stopSmtp() throws IOException {
+        smtp.close();
+    }
+
+    private static void awaitSent(final MailService mailService, final long count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (mailService.getSentCount() + mailService.getFailedCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void queuedMessagesShareOneConnection() throws Exception {
+        MailService mailService = new MailService(100, 50, 3, 0);
+        MailSender sender = mailService.getSender(smtp.getHost(), null, null);
+        for (int i = 0; i < 5; i++) {
+            sender.send("recipient" + i + "@example.com", "Subject " + i, "Body " + i, "text/plain");
+        }
+        awaitSent(mailService, 5);
+
+        assertEquals(5, mailService.getSentCount());
+        assertEquals(0, mailService.getFailedCount());
+        assertEquals(5, smtp.messages.size());
+        assertTrue(smtp.messages.get(0).contains("Subject: Subject 0"));
+        assertTrue(smtp.messages.get(4).contains("Body 4"));
+        assertEquals(1, smtp.connections.get());
+    }
+
+    @Test
+    public void failedMessagesAreRetried() throws Exception {
+        smtp.rejections.set(1);
+        MailService mailService = new MailService(100, 50, 3, 0);
+        mailService.getSender(smtp.getHost(), null, null)
+                .send("recipient@example.com", "Subject", "Body", "text/plain");
+        awaitSent(mailService, 1);
+
+        assertEquals(1, mailService.getSentCount());
+        assertEquals(0, mailService.getFailedCount());
+        assertEquals(1, smtp.messages.size());
+    }
+
+    @Test
+    public void retriesDontDelayOtherMessages() throws Exception {
+        smtp.rejections.set(1);
+        MailService mailService = new MailService(100, 50, 3, TimeUnit.MINUTES.toMillis(1));
+        MailSender sender = mailService.getSender(smtp.getHost(), null, null);
+        sender.send("first@example.com", "First", "Body", "text/plain");
+        sender.send("second@example.com", "Second", "Body", "text/plain");
+        awaitSent(mailService, 1);
+
+        assertEquals(1, mailService.getSentCount());
+        assertTrue(smtp.messages.get(0).contains("Subject: Second"));
+        assertEquals(1, mailService.getQueueSize());
+        mailService.close();
+    }
+
+    @Test
+    public void messagesAreDroppedAfterTheLastAttempt() throws Exception {
+        smtp.rejections.set(2);
+        MailService mailService = new MailService(100, 50, 2, 0);
+        mailService.getSender(smtp.getHost(), null, null)
+                .send("recipient@example.com", "Subject", "Body", "text/plain");
+        awaitSent(mailService, 1);
+
+        assertEquals(0, mailService.getSentCount());
+        assertEquals(1, mailService.getFailedCount());
+        assertTrue(smtp.messages.isEmpty());
+    }
+
+    /**
+     * A minimal SMTP server that accepts every message, apart from the number of messages it is told to reject.
+     */
+    private static final class SmtpStandIn implements Runnable {
+
+        private final ServerSocket serverSocket = new ServerSocket(0);
+
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+
+        private final AtomicInteger connections = new AtomicInteger();
+
+        private final AtomicInteger rejections = new AtomicInteger();
+
+        SmtpStandIn() throws IOException {
+            final Thread thread = new Thread(this, "smtp-stand-in");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String getHost() {
+            return "localhost:" + serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    connections.incrementAndGet();
+                    converse(socket);
+                } catch (IOException e) {
+                    // Closed.
+                }
+            }
+        }
+
+        private void converse(final Socket socket) throws IOException {
+            final BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            final PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            reply(out, "220 localhost");
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String command = line.length() < 4 ? line : line.substring(0, 4).toUpperCase();
+                if (command.equals("DATA")) {
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    final StringBuilder message = new StringBuilder();
+                    while (!(line = in.readLine()).equals(".")) {
+                        message.append(line).append('\n');
+                    }
+                    if (rejections.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+                        reply(out, "451 Try again later");
+                    } else {
+                        messages.add(message.toString());
+                        reply(out, "250 OK");
+                    }
+                } else if (command.equals("QUIT")) {
+                    reply(out, "221 Bye");
+                    return;
+                } else {
+                    reply(out, "250 OK");
+                }
+            }
+        }
+
+        private static void reply(final PrintWriter out, final String reply) {
+            out.print(reply + "\r\n");
+            out.flush();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}